@@ -5,10 +5,7 @@
  */
 package artificialintelligence;
 
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.HashMap;
 
 /*
 if (depth == 0 || parent.board.isGameOver()) {
@@ -67,56 +64,93 @@ if (depth == 0 || parent.board.isGameOver()) {
  * @author rohan
  */
 public class AlphaBetaNode {
-	public static final boolean DO_PRESORT = false;
-	public static class Pair<A, B>{
-		A a;
-		B b;
-		public Pair(A a, B b){
-			this.a = a;
-			this.b = b;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			Pair p = (Pair) obj;
-			return p.a.equals(a) && p.b.equals(b);
-		}
-
-		public int hashCode(){
-			return b.hashCode();
-		}
+	/**
+	 * How much memory the transposition table gets, unless somebody calls
+	 * {@link #setTranspositionTableSize(int)}
+	 */
+	public static final int DEFAULT_TT_MEGABYTES = 64;
+
+	/**
+	 * Every position searched so far, for both searches below. Chess boards
+	 * are keyed by their Zobrist key (which knows whose turn it is), every
+	 * other board by its hash with MIN_PLAYER_KEY mixed in on the minimizing
+	 * player's turn
+	 */
+	private static TranspositionTable transpositionTable = new TranspositionTable(DEFAULT_TT_MEGABYTES);
+	private static final long MIN_PLAYER_KEY = 0x5DEECE66DL * 0x9E3779B97F4A7C15L;
+
+	/**
+	 * Throw the table away and make a new one of the given size
+	 */
+	public static void setTranspositionTableSize(int megabytes) {
+		transpositionTable = new TranspositionTable(megabytes);
 	}
 
-
-	public static boolean isCacheHit(HashMap<Board, Pair<Integer, Integer>> transpositionTable, Board b, int depth){
-		return  transpositionTable.containsKey(b) && transpositionTable.get(b).a >= depth;
+	public static void clearTPTable(){
+		transpositionTable.clear();
 	}
-	public static void updateCache(HashMap<Board, Pair<Integer, Integer>> transpositionTable, Board b, int depth, int value){
-		if(!transpositionTable.containsKey(b) || transpositionTable.get(b).a < depth){
-			Pair<Integer, Integer> v = new Pair<>(depth, value);
-			transpositionTable.put(b, v);
-		}
 
+	private static long getKey(Board board, boolean maximizingPlayer) {
+		return maximizingPlayer ? board.hash() : board.hash() ^ MIN_PLAYER_KEY;
 	}
-	public static final int TP_TABLE_SIZE = 2 << 27 - 1;
 
-	public static HashMap<Board, Pair<Integer, Integer>> transpositionTableMax = new HashMap<>();
-	public static HashMap<Board, Pair<Integer, Integer>> transpositionTableMin = new HashMap<>();
+	private static void updateCache(long key, int depth, int value) {
+		transpositionTable.store(key, value, 0, depth, TranspositionTable.EXACT);
+	}
 
-	public static void clearTPTable(){
-		transpositionTableMax.clear();
-		transpositionTableMin.clear();
+	/**
+	 * Remember a position we searched between alpha and beta. If the value
+	 * came out at or below alpha nothing was good enough and all we know is
+	 * that the real value is no better, at or above beta we stopped early and
+	 * it could be even higher, and only in between is it exact
+	 *
+	 * @param alpha alpha as it was before any move was searched
+	 * @param maximizingPlayer who was to move, for scores that are always the
+	 * computer's. The chess search scores for the side to move, so it passes
+	 * true
+	 */
+	private static void updateCache(long key, int depth, int value, int bestMove, int alpha, int beta, boolean maximizingPlayer) {
+		int bound = value <= alpha ? TranspositionTable.UPPER_BOUND
+				: value >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+		//if every move failed for whoever was to move, which one came out on
+		//top means nothing
+		if (bound == (maximizingPlayer ? TranspositionTable.UPPER_BOUND : TranspositionTable.LOWER_BOUND)) {
+			bestMove = 0;
+		}
+		transpositionTable.store(key, value, bestMove, depth, bound);
 	}
 
 	static int a = 0;
 
 	public static int alphaBeta(AlphaBetaNode parent, int depth, int alpha, int beta, boolean maximizingPlayer, int maxDepth, AlphaBetaNode grandparent) {
 		a++;
-		HashMap<Board, Pair<Integer, Integer>> transpositionTable = maximizingPlayer ? transpositionTableMax : transpositionTableMin;
-
-		if(isCacheHit(transpositionTable, parent.board, depth)){
-			return transpositionTable.get(parent.board).b;
+		if (isOutOfTime(a)) {
+			return 0;
+		}
+		long key = getKey(parent.board, maximizingPlayer);
+		int slot = transpositionTable.probe(key);
+		if (slot >= 0 && depth != maxDepth && transpositionTable.getDepth(slot) >= depth) {
+			//scores here are always the computer's, so a lower bound raises
+			//alpha and an upper bound lowers beta whoever is to move
+			int score = transpositionTable.getScore(slot);
+			switch (transpositionTable.getBound(slot)) {
+				case TranspositionTable.EXACT:
+					return score;
+				case TranspositionTable.LOWER_BOUND:
+					alpha = Math.max(alpha, score);
+					break;
+				case TranspositionTable.UPPER_BOUND:
+					beta = Math.min(beta, score);
+					break;
+			}
+			if (alpha >= beta) {
+				return score;
+			}
 		}
+		//whatever we find is a bound on this window, which may be narrower
+		//than the one we were given
+		int alphaOrig = alpha;
+		int betaOrig = beta;
 
 		// forever games are draws:
 
@@ -126,15 +160,11 @@ public class AlphaBetaNode {
 
         List<Integer> moves = parent.board.getPossibleMoves(maximizingPlayer);
 
-		//old pre-sort heuristics
-		if(DO_PRESORT && (maxDepth - depth) <= 2 ) {
-			HashMap<Integer, Integer> values = new HashMap<>();
-			for (Integer move : moves) {
-				values.put(move, transpositionTable.getOrDefault(parent.board.makeMove(move, maximizingPlayer), new Pair<>(0, 0)).b);
-			}
-			moves.sort(Comparator.comparingInt(values::get));
-			if(maximizingPlayer){
-				Collections.reverse(moves);
+		//whatever was best last time gets looked at first
+		if (slot >= 0) {
+			int hashMove = moves.indexOf(transpositionTable.getMove(slot));
+			if (hashMove > 0) {
+				moves.add(0, moves.remove(hashMove));
 			}
 		}
 
@@ -142,22 +172,17 @@ public class AlphaBetaNode {
 
         if (depth == 0 || parent.board.isGameOver()) {
             int value = parent.board.getValue();
-            updateCache(transpositionTable, parent.board, depth, value);
+            updateCache(key, depth, value);
             return value;
         }
         if (moves.isEmpty()) {
-            if ((parent.board instanceof Chess)) {
-
-                for (int move : parent.board.getPossibleMoves(!maximizingPlayer)) {
-                    if ((((Chess) parent.board).getTileAtSpotSpecial((move >> 6) & 63) & 7) == Chess.KING) {
-                        int out = maximizingPlayer ? -Chess.KING_VALUE + (depth << 2) : Chess.KING_VALUE - (depth << 2);
-                        updateCache(transpositionTable, parent.board, depth, out);
-                        return out;
-                    }
-                }
-
+            //no moves and the king is attacked: mate, otherwise stalemate
+            if ((parent.board instanceof Chess) && ((Chess) parent.board).isInCheck(maximizingPlayer)) {
+                int out = maximizingPlayer ? -Chess.KING_VALUE + (depth << 2) : Chess.KING_VALUE - (depth << 2);
+                updateCache(key, depth, out);
+                return out;
             }
-            updateCache(transpositionTable, parent.board, depth, 0);
+            updateCache(key, depth, 0);
             return 0;
         }
 
@@ -170,7 +195,11 @@ public class AlphaBetaNode {
 
 			for (Integer move : moves) {
 				int oldValue = value;
-				value = Math.max(value, alphaBeta(new AlphaBetaNode(parent.board.makeMove(move, maximizingPlayer)), depth - 1, alpha, beta, !maximizingPlayer, maxDepth, grandparent));
+				int score = alphaBeta(new AlphaBetaNode(parent.board.makeMove(move, maximizingPlayer)), depth - 1, alpha, beta, !maximizingPlayer, maxDepth, grandparent);
+				if (stopped) {
+					return 0;
+				}
+				value = Math.max(value, score);
 				alpha = Math.max(alpha, value);
 				if (value != oldValue) {
 					bestMove = i;
@@ -181,7 +210,7 @@ public class AlphaBetaNode {
 				}
 			}
 			parent.bestMove = moves.get(bestMove);
-			updateCache(transpositionTable, parent.board, depth, value);
+			updateCache(key, depth, value, parent.bestMove, alphaOrig, betaOrig, maximizingPlayer);
 			return value;
 		} else {
 			int value = Integer.MAX_VALUE;
@@ -190,7 +219,11 @@ public class AlphaBetaNode {
 			int i = 0;
 			for (Integer move : moves) {
 				int oldValue = value;
-				value = Math.min(value, alphaBeta(new AlphaBetaNode(parent.board.makeMove(move, maximizingPlayer)), depth - 1, alpha, beta, !maximizingPlayer, maxDepth, grandparent));
+				int score = alphaBeta(new AlphaBetaNode(parent.board.makeMove(move, maximizingPlayer)), depth - 1, alpha, beta, !maximizingPlayer, maxDepth, grandparent);
+				if (stopped) {
+					return 0;
+				}
+				value = Math.min(value, score);
 				beta = Math.min(beta, value);
 				if (value != oldValue) {
 					bestMove = i;
@@ -201,11 +234,509 @@ public class AlphaBetaNode {
 				}
 			}
 			parent.bestMove = moves.get(bestMove);
-			updateCache(transpositionTable, parent.board, depth, value);
+			updateCache(key, depth, value, parent.bestMove, alphaOrig, betaOrig, maximizingPlayer);
 			return value;
 		}
 	}
 
+	private static long chessRootHash;
+	private static int chessBestMove;
+	/**
+	 * One move picker per ply, so the chess search never has to allocate one
+	 */
+	private static final MovePicker[] chessPickers = new MovePicker[BitboardChess.MAX_PLY];
+	/**
+	 * The last two quiet moves that caused a cutoff at each ply, they are
+	 * likely to do it again in the positions next door
+	 */
+	private static final int[][] chessKillers = new int[BitboardChess.MAX_PLY][2];
+	/**
+	 * History heuristic, [Chess.WHITE or Chess.BLACK][start][end]: every quiet
+	 * move that causes a cutoff gets depth squared added, so moves that keep
+	 * working deep in the tree float to the front of the quiet moves
+	 * everywhere
+	 */
+	private static final int[][][] chessHistory = new int[2][64][64];
+	/**
+	 * Once an entry gets this big the whole side is halved, which keeps the
+	 * numbers in range and lets old successes fade
+	 */
+	private static final int MAX_HISTORY = 1 << 20;
+
+	/**
+	 * The same search as above, written for a chess board that is changed in
+	 * place and put back after each move. There is exactly one board for the
+	 * whole search, and no AlphaBetaNode per position, so the garbage collector
+	 * has nothing to do. Scores are always from the point of view of the side
+	 * to move (so the minimizing player just negates), which saves writing
+	 * everything out twice
+	 *
+	 * @param position the board, it is left exactly as it was found
+	 * @param ply how many moves we are below the root
+	 * @return the value of the position for whoever is to move
+	 */
+	public static int alphaBeta(BitboardChess position, int depth, int alpha, int beta, boolean maximizingPlayer, int ply) {
+		a++;
+		if (isOutOfTime(a)) {
+			return 0;
+		}
+		long hash = position.hash();
+		long key = hash;
+
+		// forever games are draws:
+		if (ply != 0 && (ply & 1) == 0 && hash == chessRootHash) {
+			return 0;
+		}
+
+		if (ply == 0) {
+			chessExtensions[0] = 0;
+		}
+		//a singular extension test searching this position without its best
+		//move, see below. The table entry is for the whole position, so it is
+		//no use here, and this search shouldn't overwrite it either
+		int excludedMove = chessExcludedMoves[ply];
+		int hashMove = MovePicker.NO_MOVE;
+		int slot = excludedMove == MovePicker.NO_MOVE ? transpositionTable.probe(key) : -1;
+		int hashScore = 0;
+		int hashDepth = 0;
+		int hashBound = 0;
+		if (slot >= 0) {
+			hashMove = transpositionTable.getMove(slot);
+			hashScore = transpositionTable.getScore(slot);
+			hashDepth = transpositionTable.getDepth(slot);
+			hashBound = transpositionTable.getBound(slot);
+			//the root has to come up with a move, so it always searches
+			if (ply != 0 && transpositionTable.getDepth(slot) >= depth) {
+				int score = transpositionTable.getScore(slot);
+				switch (transpositionTable.getBound(slot)) {
+					case TranspositionTable.EXACT:
+						return score;
+					case TranspositionTable.LOWER_BOUND:
+						alpha = Math.max(alpha, score);
+						break;
+					case TranspositionTable.UPPER_BOUND:
+						beta = Math.min(beta, score);
+						break;
+				}
+				if (alpha >= beta) {
+					return score;
+				}
+			}
+		}
+		//whatever we find is a bound on this window, which may be narrower
+		//than the one we were given
+		int alphaOrig = alpha;
+
+		//a king has been taken, the game is over. Asking isGameOver would
+		//evaluate the whole board just to find that out
+		boolean isKingGone = position.getKingSquare(true) < 0 || position.getKingSquare(false) < 0;
+		if (depth == 0 && QUIESCENCE_SEARCH && !isKingGone) {
+			int value = quiescence(position, alpha, beta, maximizingPlayer, ply, 0);
+			if (!stopped) {
+				updateCache(key, depth, value, MovePicker.NO_MOVE, alphaOrig, beta, true);
+			}
+			return value;
+		}
+		if (depth == 0 || isKingGone) {
+			int value = maximizingPlayer ? position.getValue() : -position.getValue();
+			updateCache(key, depth, value);
+			return value;
+		}
+		boolean isInCheck = position.isInCheck(maximizingPlayer);
+		//near the leaves a null window node (nobody expects an exact score
+		//from it) can often be decided on the evaluation alone
+		boolean canPrune = ply != 0 && !isInCheck && beta - alpha == 1 && Math.abs(beta) < Chess.KING_VALUE / 2
+				&& excludedMove == MovePicker.NO_MOVE;
+		int staticEval = ply != 0 && !isInCheck ? (maximizingPlayer ? position.getValue() : -position.getValue()) : 0;
+		if (canPrune) {
+			//reverse futility: so far above beta that not even the best
+			//move the opponent has will bring us back down
+			if (depth < REVERSE_FUTILITY_MARGINS.length && staticEval - REVERSE_FUTILITY_MARGINS[depth] >= beta) {
+				return staticEval - REVERSE_FUTILITY_MARGINS[depth];
+			}
+			//razoring: so far below alpha that only a capture could help, so
+			//just check the captures
+			if (QUIESCENCE_SEARCH && depth < RAZOR_MARGINS.length && staticEval + RAZOR_MARGINS[depth] <= alpha) {
+				int score = quiescence(position, alpha, alpha + 1, maximizingPlayer, ply, 0);
+				if (stopped) {
+					return 0;
+				}
+				if (score <= alpha) {
+					return score;
+				}
+			}
+		}
+		//futility: a quiet move here would have to win more than the margin
+		//to get us to alpha, so don't bother playing them
+		int futilityValue = canPrune && depth < FUTILITY_MARGINS.length ? staticEval + FUTILITY_MARGINS[depth] : Integer.MAX_VALUE;
+
+		//null move pruning: if we are still at or above beta after letting the
+		//opponent move twice in a row, a real move would be even better, so
+		//there is no need to look at any. Never twice in a row, never when
+		//passing is illegal (in check), and not with only pawns left, where
+		//having to move can be the worst thing there is
+		if (NULL_MOVE_PRUNING && ply != 0 && depth >= 2 && !isInCheck && !chessNullMoves[ply - 1] && excludedMove == MovePicker.NO_MOVE
+				&& Math.abs(beta) < Chess.KING_VALUE / 2 && position.hasPieces(maximizingPlayer) && staticEval >= beta) {
+			int reduction = depth > 6 ? 3 : 2;
+			chessExtensions[ply + 1] = chessExtensions[ply];
+			chessNullMoves[ply] = true;
+			position.doNullMove(maximizingPlayer);
+			int score = -alphaBeta(position, Math.max(depth - 1 - reduction, 0), -beta, -beta + 1, !maximizingPlayer, ply + 1);
+			position.undoMove();
+			chessNullMoves[ply] = false;
+			if (stopped) {
+				return 0;
+			}
+			if (score >= beta) {
+				//a mate found after passing isn't a real one
+				score = Math.min(score, Chess.KING_VALUE / 2 - 1);
+				updateCache(key, depth, score, MovePicker.NO_MOVE, alphaOrig, beta, true);
+				return score;
+			}
+		}
+
+		//singular extensions: if the table says one move is good enough and
+		//none of the others come close (searched without it, a little lower
+		//and a lot shallower), the position hinges on that move, so it is
+		//worth looking at more deeply
+		int singularMove = MovePicker.NO_MOVE;
+		if (SINGULAR_EXTENSIONS && ply != 0 && depth >= SINGULAR_EXTENSION_DEPTH && excludedMove == MovePicker.NO_MOVE
+				&& hashMove != MovePicker.NO_MOVE && hashBound != TranspositionTable.UPPER_BOUND && hashDepth >= depth - 3
+				&& Math.abs(hashScore) < Chess.KING_VALUE / 2 && chessExtensions[ply] < MAX_EXTENSIONS
+				&& position.isLegalMove(hashMove, maximizingPlayer)) {
+			int singularBeta = hashScore - SINGULAR_MARGIN * depth;
+			chessExcludedMoves[ply] = hashMove;
+			int score = alphaBeta(position, (depth - 1) / 2, singularBeta - 1, singularBeta, maximizingPlayer, ply);
+			chessExcludedMoves[ply] = MovePicker.NO_MOVE;
+			if (stopped) {
+				return 0;
+			}
+			if (score < singularBeta) {
+				singularMove = hashMove;
+			}
+		}
+
+		//moves come out of the picker best guess first, and are only generated
+		//once we need them. They are legal, so running out before the first
+		//move means mate or stalemate straight away
+		MovePicker picker = chessPickers[ply];
+		if (picker == null) {
+			picker = chessPickers[ply] = new MovePicker();
+		}
+		int[] killers = chessKillers[ply];
+		int[][] history = chessHistory[maximizingPlayer ? Chess.BLACK : Chess.WHITE];
+		picker.init(position, maximizingPlayer, hashMove, killers[0], killers[1], history);
+
+		int value = -Integer.MAX_VALUE;
+		int bestMove = MovePicker.NO_MOVE;
+		int moveCount = 0;
+		for (int move; (move = picker.next()) != MovePicker.NO_MOVE; ) {
+			if (move == excludedMove) {
+				continue;
+			}
+			boolean isQuiet = Move.isQuiet(move);
+			moveCount++;
+			position.doMove(move, maximizingPlayer);
+			boolean givesCheck = position.isInCheck(!maximizingPlayer);
+			if (moveCount > 1 && isQuiet && !givesCheck && futilityValue <= alpha) {
+				position.undoMove();
+				value = Math.max(value, futilityValue);
+				continue;
+			}
+			//check extensions: a check has to be answered, so the line costs
+			//the opponent nothing in choice and shouldn't cost us depth. Each
+			//line only gets so many extensions, or checking back and forth
+			//could go on forever
+			int extension = (givesCheck || move == singularMove) && chessExtensions[ply] < MAX_EXTENSIONS ? 1 : 0;
+			chessExtensions[ply + 1] = chessExtensions[ply] + extension;
+			int newDepth = depth - 1 + extension;
+			int score;
+			if (moveCount == 1) {
+				score = -alphaBeta(position, newDepth, -beta, -alpha, !maximizingPlayer, ply + 1);
+			} else {
+				//principal variation search: the first move is probably the
+				//best, so the rest only have to show they are no better than
+				//alpha, which a null window does much more cheaply. Only if one
+				//isn't do we need its real score
+				int reduction = 0;
+				//late move reductions: a quiet move this far down the list is
+				//unlikely to be any good, so it gets a shallower look first
+				if (LATE_MOVE_REDUCTIONS && depth >= 3 && moveCount > 3 && isQuiet && !isInCheck && !givesCheck) {
+					reduction = LMR_REDUCTIONS[Math.min(depth, 63)][Math.min(moveCount, 63)];
+				}
+				score = -alphaBeta(position, newDepth - reduction, -alpha - 1, -alpha, !maximizingPlayer, ply + 1);
+				if (score > alpha && reduction > 0 && !stopped) {
+					score = -alphaBeta(position, newDepth, -alpha - 1, -alpha, !maximizingPlayer, ply + 1);
+				}
+				if (score > alpha && score < beta && !stopped) {
+					score = -alphaBeta(position, newDepth, -beta, -alpha, !maximizingPlayer, ply + 1);
+				}
+			}
+			position.undoMove();
+			if (stopped) {
+				return 0;
+			}
+			if (score > value) {
+				value = score;
+				bestMove = move;
+			}
+			alpha = Math.max(alpha, value);
+			if (alpha >= beta) {
+				if (isQuiet) {
+					if (killers[0] != move) {
+						killers[1] = killers[0];
+						killers[0] = move;
+					}
+					addHistory(history, move, depth);
+				}
+				break;
+			}
+		}
+		if (excludedMove != MovePicker.NO_MOVE) {
+			//the excluded move was the only one: nothing else comes close
+			return bestMove == MovePicker.NO_MOVE ? alpha : value;
+		}
+		if (bestMove == MovePicker.NO_MOVE) {
+			value = isInCheck ? -Chess.KING_VALUE + (depth << 2) : 0;
+			updateCache(key, depth, value);
+			return value;
+		}
+		if (ply == 0) {
+			chessBestMove = bestMove;
+		}
+		updateCache(key, depth, value, bestMove, alphaOrig, beta, true);
+		return value;
+	}
+
+	/**
+	 * Whether the chess search goes one ply deeper after a move that stands
+	 * head and shoulders above the rest (see alphaBeta). Checks always get
+	 * the extra ply, budget permitting
+	 */
+	public static boolean SINGULAR_EXTENSIONS = true;
+	/**
+	 * Below this depth the test costs more than it finds
+	 */
+	public static final int SINGULAR_EXTENSION_DEPTH = 6;
+	/**
+	 * How far below the hash move's score, per ply of depth, the other moves
+	 * have to stay for it to count as singular
+	 */
+	private static final int SINGULAR_MARGIN = 2;
+	/**
+	 * How many plies of extensions one line from the root can collect, 0 for
+	 * no extensions at all
+	 */
+	public static int MAX_EXTENSIONS = 8;
+	/**
+	 * Extensions used so far on the line leading to each ply
+	 */
+	private static final int[] chessExtensions = new int[BitboardChess.MAX_PLY];
+	/**
+	 * The move each ply is searching without, while it tests whether that
+	 * move is singular, or NO_MOVE
+	 */
+	private static final int[] chessExcludedMoves = new int[BitboardChess.MAX_PLY];
+
+	/**
+	 * How far above beta the evaluation has to be, by remaining depth, for a
+	 * node to give up on searching and fail high straight away (reverse
+	 * futility pruning). Only depths that have a margin here get pruned
+	 */
+	public static int[] REVERSE_FUTILITY_MARGINS = new int[]{0, Chess.PAWN_VALUE * 3 / 2, Chess.PAWN_VALUE * 3, Chess.PAWN_VALUE * 9 / 2};
+	/**
+	 * How far below alpha the evaluation has to be, by remaining depth, for a
+	 * node to only look at captures (razoring)
+	 */
+	public static int[] RAZOR_MARGINS = new int[]{0, Chess.PAWN_VALUE * 3, Chess.PAWN_VALUE * 5};
+	/**
+	 * How much a quiet move could conceivably gain, by remaining depth. Quiet
+	 * moves that still wouldn't get us to alpha with that much are skipped:
+	 * frontier nodes (depth 1) are allowed about a minor piece, pre-frontier
+	 * nodes (depth 2) about a rook
+	 */
+	public static int[] FUTILITY_MARGINS = new int[]{0, Chess.KNIGHT_VALUE, Chess.ROOK_VALUE};
+
+	/**
+	 * Whether the chess search keeps {@link BitboardChess}'s attack maps up to
+	 * date on its copy of the board, so check detection and king moves are a
+	 * table lookup instead of a search for attackers. Same moves, same
+	 * nodes, but every move (and unmake) pays for the update, which for now
+	 * costs more than the lookups save (about a third slower), so it's off
+	 */
+	public static boolean ATTACK_MAPS = false;
+
+	/**
+	 * Whether the chess search tries passing to prove a position is too good
+	 * to need searching (see alphaBeta)
+	 */
+	public static boolean NULL_MOVE_PRUNING = true;
+	/**
+	 * Which plies are in the middle of a null move search right now
+	 */
+	private static final boolean[] chessNullMoves = new boolean[BitboardChess.MAX_PLY];
+	/**
+	 * Whether the chess search looks at late quiet moves less deeply, and
+	 * only searches them properly if they turn out to beat alpha
+	 */
+	public static boolean LATE_MOVE_REDUCTIONS = true;
+	/**
+	 * How many plies to take off, by [depth][move number]. Grows with the log
+	 * of both, so the reductions stay mild near the leaves and near the front
+	 * of the list
+	 */
+	private static final int[][] LMR_REDUCTIONS = new int[64][64];
+
+	static {
+		for (int depth = 1; depth < 64; depth++) {
+			for (int moveCount = 1; moveCount < 64; moveCount++) {
+				//never drop straight into quiescence search
+				LMR_REDUCTIONS[depth][moveCount] = Math.max(Math.min((int) (0.75 + Math.log(depth) * Math.log(moveCount) / 2.25), depth - 2), 0);
+			}
+		}
+	}
+
+	/**
+	 * Whether the chess search keeps going past its depth limit until the
+	 * captures run out, rather than taking the evaluation half way through a
+	 * trade
+	 */
+	public static boolean QUIESCENCE_SEARCH = true;
+	/**
+	 * Whether the first ply of quiescence search also tries the quiet moves
+	 * that give check. Finds more tactics, costs a lot of nodes
+	 */
+	public static boolean QUIESCENCE_CHECKS = false;
+	/**
+	 * How many plies of captures quiescence search goes before it settles for
+	 * the evaluation, so a board full of pieces that can take each other
+	 * can't blow up
+	 */
+	public static final int MAX_QUIESCENCE_DEPTH = 8;
+	/**
+	 * A capture that leaves us below alpha even after winning this much on
+	 * top of the piece isn't worth trying
+	 */
+	private static final int DELTA_MARGIN = 2 * Chess.PAWN_VALUE;
+	/**
+	 * Nodes searched by quiescence, a counts the rest
+	 */
+	static int quiescenceNodes = 0;
+	/**
+	 * Room for the quiet moves, one list per ply, when looking for checks
+	 */
+	private static final int[][] chessQuiets = new int[BitboardChess.MAX_PLY][];
+
+	/**
+	 * What happens after the chess search runs out of depth: only captures (or
+	 * every way out of check) are searched, and the side to move can always
+	 * "stand pat" and take the evaluation instead if that is better than
+	 * taking anything. So the search only ever stops in quiet positions, and
+	 * doesn't think it's a queen up because the recapture was one ply too deep
+	 *
+	 * @param depth how many plies of quiescence search we are in
+	 * @return the value of the position for whoever is to move
+	 */
+	public static int quiescence(BitboardChess position, int alpha, int beta, boolean maximizingPlayer, int ply, int depth) {
+		quiescenceNodes++;
+		if (isOutOfTime(quiescenceNodes)) {
+			return 0;
+		}
+		int standPat = maximizingPlayer ? position.getValue() : -position.getValue();
+		//a missing king, the game is over
+		if (Math.abs(standPat) > Chess.KING_VALUE / 2 || depth >= MAX_QUIESCENCE_DEPTH || ply >= BitboardChess.MAX_PLY - 1) {
+			return standPat;
+		}
+		//in check there is no standing pat, every evasion has to be tried
+		boolean isInCheck = position.isInCheck(maximizingPlayer);
+		int value = -Integer.MAX_VALUE;
+		if (!isInCheck) {
+			value = standPat;
+			if (value >= beta) {
+				return value;
+			}
+			alpha = Math.max(alpha, value);
+		}
+
+		MovePicker picker = chessPickers[ply];
+		if (picker == null) {
+			picker = chessPickers[ply] = new MovePicker();
+		}
+		picker.initQuiescence(position, maximizingPlayer);
+		boolean hasMove = false;
+		for (int move; (move = picker.next()) != MovePicker.NO_MOVE; ) {
+			hasMove = true;
+			//delta pruning: hopeless captures
+			if (!isInCheck && !Move.isPromotion(move) && standPat + getVictimValue(position, move) + DELTA_MARGIN <= alpha) {
+				continue;
+			}
+			position.doMove(move, maximizingPlayer);
+			int score = -quiescence(position, -beta, -alpha, !maximizingPlayer, ply + 1, depth + 1);
+			position.undoMove();
+			if (stopped) {
+				return 0;
+			}
+			value = Math.max(value, score);
+			alpha = Math.max(alpha, value);
+			if (alpha >= beta) {
+				return value;
+			}
+		}
+		if (isInCheck && !hasMove) {
+			return -Chess.KING_VALUE;
+		}
+
+		if (QUIESCENCE_CHECKS && depth == 0 && !isInCheck) {
+			int[] quiets = chessQuiets[ply];
+			if (quiets == null) {
+				quiets = chessQuiets[ply] = new int[BitboardChess.MAX_MOVES];
+			}
+			int count = position.generateMoves(quiets, 0, maximizingPlayer, BitboardChess.QUIETS);
+			for (int i = 0; i < count; i++) {
+				position.doMove(quiets[i], maximizingPlayer);
+				if (!position.isInCheck(!maximizingPlayer)) {
+					position.undoMove();
+					continue;
+				}
+				int score = -quiescence(position, -beta, -alpha, !maximizingPlayer, ply + 1, depth + 1);
+				position.undoMove();
+				if (stopped) {
+					return 0;
+				}
+				value = Math.max(value, score);
+				alpha = Math.max(alpha, value);
+				if (alpha >= beta) {
+					return value;
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * What a capture takes (nothing, for a quiet move)
+	 */
+	private static int getVictimValue(BitboardChess position, int move) {
+		return Move.isEnPassant(move) ? Chess.PAWN_VALUE : Chess.VALUES[position.getTileAtSpot(Move.getEnd(move)) & 7];
+	}
+
+	private static void addHistory(int[][] history, int move, int depth) {
+		int[] fromStart = history[Move.getStart(move)];
+		int end = Move.getEnd(move);
+		fromStart[end] += depth * depth;
+		if (fromStart[end] >= MAX_HISTORY) {
+			ageHistory(history);
+		}
+	}
+
+	private static void ageHistory(int[][] history) {
+		for (int[] fromStart : history) {
+			for (int end = 0; end < 64; end++) {
+				fromStart[end] >>= 1;
+			}
+		}
+	}
+
 	public final Board board;
 	private int bestMove;
 
@@ -215,17 +746,158 @@ public class AlphaBetaNode {
 	}
 
 	public int getBestMove() {
-		    //clearTPTable();
-			//int depth;
-			//int val = 0;
-			// long origTime = System.nanoTime();
-			// for(depth = 2; System.nanoTime() - origTime <= 1e9; depth++) {
-					// a = 0;
-					int val = alphaBeta(this, ArtificialIntelligence.DEPTH, Integer.MIN_VALUE, Integer.MAX_VALUE, true, ArtificialIntelligence.DEPTH, this);
-					// System.out.println(a);
-			// }
+		transpositionTable.newSearch();
+		startTime = System.nanoTime();
+		long limit = ArtificialIntelligence.TIME_LIMIT * 1000000;
+		hardLimit = limit == 0 ? Long.MAX_VALUE : limit;
+		softLimit = limit == 0 ? Long.MAX_VALUE : limit / 2;
+		//the first iteration always finishes, so there is a move to play
+		deadline = Long.MAX_VALUE;
+		stopped = false;
+		if (board instanceof BitboardChess) {
+			//search a private copy, the GUI is still drawing the real board
+			BitboardChess position = new BitboardChess((BitboardChess) board);
+			position.setComputerToMove(true);
+			if (ATTACK_MAPS) {
+				position.enableAttackMaps();
+			}
+			chessRootHash = position.hash();
+			for (int[] killers : chessKillers) {
+				killers[0] = killers[1] = MovePicker.NO_MOVE;
+			}
+			//the last move's history is still a decent guess, but it shouldn't
+			//outweigh what this search finds
+			for (int[][] history : chessHistory) {
+				ageHistory(history);
+			}
+			boolean isOnlyMove = position.countLegalMoves(true) == 1;
+			int bestMove = MovePicker.NO_MOVE;
+			int val = 0;
+			int stableIterations = 0;
+			for (int depth = 1; depth <= ArtificialIntelligence.DEPTH; depth++) {
+				int score = aspirationSearch(position, depth, val);
+				if (stopped) {
+					break;
+				}
+				stableIterations = chessBestMove == bestMove ? stableIterations + 1 : 0;
+				boolean isScoreDropping = depth > 1 && score < val - SCORE_DROP;
+				bestMove = chessBestMove;
+				val = score;
+				//a mate isn't going to get any better by looking deeper
+				if (isOnlyMove || Math.abs(val) >= Chess.KING_VALUE / 2 || isTimeUp(stableIterations, isScoreDropping)) {
+					break;
+				}
+			}
+			System.out.println(val);
+			return Move.toLegacy(bestMove);
+		}
+		int bestMove = 0;
+		int val = 0;
+		int stableIterations = 0;
+		for (int depth = 1; depth <= ArtificialIntelligence.DEPTH; depth++) {
+			int score = alphaBeta(this, depth, Integer.MIN_VALUE, Integer.MAX_VALUE, true, depth, this);
+			if (stopped) {
+				break;
+			}
+			stableIterations = depth > 1 && this.bestMove == bestMove ? stableIterations + 1 : 0;
+			bestMove = this.bestMove;
+			val = score;
+			//scores mean something different in every game, so only chess
+			//knows what a worrying drop is
+			if (isTimeUp(stableIterations, false)) {
+				break;
+			}
+		}
 		System.out.println(val);
-		return this.bestMove;
+		return bestMove;
+	}
+
+	/**
+	 * How far either side of the last iteration's score the root looks at
+	 * first. Doubles every time the score lands outside
+	 */
+	private static final int ASPIRATION_WINDOW = Chess.PAWN_VALUE / 4;
+
+	/**
+	 * Search the root with a narrow window around where the last iteration
+	 * ended up, since the score rarely moves much from one depth to the next
+	 * and a narrow window cuts off a lot more. If the score falls outside, the
+	 * window gets wider on that side and we go again
+	 *
+	 * @param guess the last iteration's score
+	 */
+	private static int aspirationSearch(BitboardChess position, int depth, int guess) {
+		//too shallow for the last score to mean much, or a mate, which moves
+		//around by more than any window
+		if (depth < 3 || Math.abs(guess) >= Chess.KING_VALUE / 2) {
+			return alphaBeta(position, depth, -Integer.MAX_VALUE, Integer.MAX_VALUE, true, 0);
+		}
+		long delta = ASPIRATION_WINDOW;
+		long alpha = guess - delta;
+		long beta = guess + delta;
+		while (true) {
+			int score = alphaBeta(position, depth, (int) Math.max(alpha, -Integer.MAX_VALUE), (int) Math.min(beta, Integer.MAX_VALUE), true, 0);
+			if (stopped) {
+				return score;
+			}
+			delta <<= 1;
+			if (score <= alpha) {
+				alpha = score - delta;
+			} else if (score >= beta) {
+				beta = score + delta;
+			} else {
+				return score;
+			}
+		}
+	}
+
+	/**
+	 * When the search started, and how long it may take (in nanoseconds). An
+	 * iteration that runs past the hard limit gets thrown away, and no new
+	 * one starts after the soft limit, since it would probably not finish
+	 */
+	private static long startTime;
+	private static long softLimit;
+	private static long hardLimit;
+	private static long deadline = Long.MAX_VALUE;
+	private static boolean stopped;
+	/**
+	 * If the score falls by more than this from one iteration to the next we
+	 * are probably about to lose something, so it is worth thinking longer
+	 */
+	private static final int SCORE_DROP = Chess.PAWN_VALUE / 2;
+
+	/**
+	 * Checked at every node, but the clock is only read every 1024 of them
+	 *
+	 * @param nodes the node counter of whichever search is asking
+	 * @return true once the current iteration has to be abandoned
+	 */
+	private static boolean isOutOfTime(int nodes) {
+		if ((nodes & 1023) == 0 && System.nanoTime() > deadline) {
+			stopped = true;
+		}
+		return stopped;
+	}
+
+	/**
+	 * Decide whether to start another iteration, after finishing one
+	 *
+	 * @param stableIterations how many iterations in a row came up with the
+	 * same best move
+	 * @param isScoreDropping whether the last iteration scored noticeably
+	 * worse than the one before
+	 */
+	private static boolean isTimeUp(int stableIterations, boolean isScoreDropping) {
+		long soft = softLimit;
+		if (isScoreDropping) {
+			soft = hardLimit;
+		} else if (stableIterations >= 2) {
+			soft /= 2;
+		}
+		//from here on we are allowed to give up half way through
+		deadline = hardLimit == Long.MAX_VALUE ? Long.MAX_VALUE : startTime + hardLimit;
+		return System.nanoTime() - startTime > soft;
 	}
 
 }
\ No newline at end of file
@@ -37,10 +37,19 @@ public class ArtificialIntelligence {
 
 	public static Difficulty difficulty = Difficulty.medium;
 
-	public static final int[] CHESS_DIFFICULTY = new int[]{2, 3, 4, 5, 6};
+	/**
+	 * Hard is on the clock (see TIME_LIMITS), so its depth is only there to
+	 * stop the search somewhere
+	 */
+	public static final int[] CHESS_DIFFICULTY = new int[]{2, 3, 4, 5, 64};
 	public static final int[] TIC_TAC_TOE_DIFFICULTY = new int[]{1, 3, 5, 7, 9};
 	public static final int[] OTHELLO_DIFFICULTY = new int[]{1, 3, 5, 7, 9};
 	public static final int[] DALL_BALL_DIFFICULTY = new int[]{1, 2, 4, 8, 16};
+	/**
+	 * How many milliseconds the computer may think about a chess move, per
+	 * difficulty. 0 means no limit, search to DEPTH however long it takes
+	 */
+	public static final long[] TIME_LIMITS = new long[]{0, 0, 0, 0, 3000};
 
 	public static final AtomicBoolean computerIsThinking = new AtomicBoolean(false);
 
@@ -88,6 +97,11 @@ public class ArtificialIntelligence {
 	 */
 	public static int DEPTH = 5;
 
+	/**
+	 * Wall clock budget for one move in milliseconds, 0 for none
+	 */
+	public static long TIME_LIMIT = 0;
+
 	/**
 	 * The graphics display
 	 */
@@ -95,7 +109,7 @@ public class ArtificialIntelligence {
 
 	public static final String[] GAMES = new String[]{"Tic-Tac-Toe", "Dall Ball (3x's and one O to win)", "Othello/Reversi (5x5)", "Othello (8x8)", "Chess"};
 
-	public static final String[] DIFFICULTY_TEXTS = new String[]{"Baby", "Child", "Easy", "Medium", "Hard (SLOW)"};
+	public static final String[] DIFFICULTY_TEXTS = new String[]{"Baby", "Child", "Easy", "Medium", "Hard (chess: 3 seconds)"};
 
 	public static class DifficultyActionListener implements ActionListener {
 
@@ -139,6 +153,9 @@ public class ArtificialIntelligence {
 	 */
 	static void setUpNewGame(int gamePlayed) {
 		unMoved = true;
+		//the small boards' hashes are just their states, so the last game's
+		//entries would be read back as this one's
+		AlphaBetaNode.clearTPTable();
 		switch (gamePlayed) {
 			case 0:
 				setMainBoard(new TicTacToeBoard(0));
@@ -159,7 +176,7 @@ public class ArtificialIntelligence {
 				setSIZE(8);
 				break;
 			case 4:
-				setMainBoard(new Chess(humanWillPlayFirst));
+				setMainBoard(new BitboardChess(humanWillPlayFirst));
 				setSIZE(8);
 		}
 	}
@@ -170,7 +187,7 @@ public class ArtificialIntelligence {
 		Chess.doCloserAnalysis = true;
 		if (mainBoard instanceof Chess) {
 
-			toReturn = mainBoard.getPossibleMoves(isComputerTurn).isEmpty();
+			toReturn = !((Chess) mainBoard).hasAnyLegalMove(isComputerTurn);
 
 		} else {
 			//TODO: display some message...
@@ -193,8 +210,12 @@ public class ArtificialIntelligence {
 			Chess.doCloserAnalysis = false;
 			try {
 				Board mainBoard = getMainBoard();
+				//only chess is on the clock, the other games are small enough to
+				//search to their depth
+				TIME_LIMIT = 0;
 				if (mainBoard instanceof Chess) {
 					DEPTH = ArtificialIntelligence.CHESS_DIFFICULTY[difficulty.ordinal()];
+					TIME_LIMIT = TIME_LIMITS[difficulty.ordinal()];
 				} else if (mainBoard instanceof TicTacToeBoard) {
 					DEPTH = ArtificialIntelligence.TIC_TAC_TOE_DIFFICULTY[difficulty.ordinal()];
 				} else if (mainBoard instanceof Othello || mainBoard instanceof BigOthello) {
@@ -203,7 +224,6 @@ public class ArtificialIntelligence {
 					DEPTH = ArtificialIntelligence.DALL_BALL_DIFFICULTY[difficulty.ordinal()];
 				}
 
-
 				AlphaBetaNode node = new AlphaBetaNode(mainBoard); // new AlphaBetaNode((mainBoard instanceof Chess)? new GeneticChess(((Chess) mainBoard).state): mainBoard);
 				if (!getMainBoard().getPossibleMoves(true).isEmpty()) {
 					int bestMove = node.getBestMove();
@@ -642,14 +662,13 @@ gameOver(false);
 				if (mouseDownLoc != -1) {
 					Graphics2D g2 = (Graphics2D) g;
 					g2.setStroke(new BasicStroke(4));
-					List<Integer> moves = ArtificialIntelligence.getMainBoard().getPossibleMoves(false);
+					//only the legal moves, no need to try each one out for check
+					List<Integer> moves = ((Chess) ArtificialIntelligence.getMainBoard()).getPossibleMoves(false, true, false);
 					for (int move : moves) {
 						move &= 4095;
 						if ((move & 63) == mouseDownLoc) {
-							if (!((Chess) ArtificialIntelligence.getMainBoard().makeMove(move, false)).isInCheck(false)) {
-								g2.setColor(Color.green);
-								g2.drawRect(((move >> 6) & 7) * SCALE, ((move >> 9) * SCALE), SCALE, SCALE);
-							}
+							g2.setColor(Color.green);
+							g2.drawRect(((move >> 6) & 7) * SCALE, ((move >> 9) * SCALE), SCALE, SCALE);
 						}
 
 					}
@@ -695,7 +714,7 @@ gameOver(false);
 
 				@Override
 				public void mousePressed(MouseEvent e) {
-					Chess.setTileAtSpot(((Chess) getMainBoard()).state, PawnPromotionFrame.singletonPromotionFrame.spot, PawnPromotionFrame.pieces[e.getX() / GamePanel.SCALE]);
+					((Chess) getMainBoard()).setTile(PawnPromotionFrame.singletonPromotionFrame.spot, PawnPromotionFrame.pieces[e.getX() / GamePanel.SCALE]);
 					PawnPromotionFrame.singletonPromotionFrame.dispose();
 					ArtificialIntelligence.makeComputerMove();
 				}
@@ -69,27 +69,20 @@ public class BigOthello extends GenericBoardGame {
 	 */
 	private int[] state = new int[8];
 
+	/**
+	 * The rows mixed the same way as {@link Chess#hash()}. The transposition
+	 * table trusts this without comparing boards, so it has to keep every
+	 * bit: a row only uses its low 16 bits and BIG_PRIME is a power of two,
+	 * so multiplying by it would shift nearly all of them out
+	 */
 	@Override
 	public long hash() {
-		long out = 0;
-		out += state[0];
-		out *= BIG_PRIME;
-		out += state[1];
-		out *= BIG_PRIME;
-		out += state[2];
-		out *= BIG_PRIME;
-		out += state[3];
-		out *= BIG_PRIME;
-		out += state[4];
-		out *= BIG_PRIME;
-		out += state[5];
-		out *= BIG_PRIME;
-		out += state[6];
-		out *= BIG_PRIME;
-		out += state[7];
-		out *= BIG_PRIME;
-
-		return out;
+		long h = 0;
+		for (int row : state) {
+			h = (h ^ (row & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+		}
+		return h;
 	}
 
 	@Override
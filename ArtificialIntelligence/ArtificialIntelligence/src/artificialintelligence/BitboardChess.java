@@ -0,0 +1,1042 @@
+package artificialintelligence;
+
+import java.util.ArrayList;
+
+/**
+ * A chess board which keeps a bitboard for every kind of piece alongside the
+ * packed mailbox in {@link Chess#state}. Every question of the form "where
+ * are the black knights?" is now a single array read, and move
+ * generation/evaluation only ever touch occupied squares.
+ *
+ * @author rohan
+ */
+public class BitboardChess extends Chess {
+
+	/**
+	 * One long per piece, indexed exactly like a tile (piece + (color << 3)).
+	 * Index 0 and 8 would be "empty" which is never needed, so we (ab)use them
+	 * to hold every square occupied by the human and the computer respectively
+	 */
+	public long[] bitboards;
+
+	/**
+	 * How many moves deep {@link #doMove(int, boolean)} can go before they have
+	 * to be undone
+	 */
+	public static final int MAX_PLY = 128;
+
+	/**
+	 * Every square doMove overwrites, packed as (spot << 8) + the old tile, so
+	 * undoMove can put it back. Only allocated once a board is actually used
+	 * for make/unmake, boards made by makeMove never need it
+	 */
+	private int[] journal;
+	/**
+	 * Where in the journal each ply starts
+	 */
+	private int[] journalMarks;
+	private int journalTop;
+	private int ply;
+
+	//======Zobrist hashing======
+	/*
+	 * Every (piece, square) pair, the side to move, each combination of
+	 * castling rights and each column an en passant capture could happen on
+	 * gets a random 64 bit number. The key of a position is the xor of the
+	 * numbers for everything that is true about it, so a move only has to xor
+	 * in and out the handful of things it changed
+	 */
+	private static final long[][] PIECE_KEYS = new long[16][64];
+	private static final long SIDE_KEY;
+	private static final long[] CASTLING_KEYS = new long[16];
+	private static final long[] EN_PASSANT_KEYS = new long[8];
+
+	static {
+		java.util.Random random = new java.util.Random(0x2B0B);
+		for (long[] keys : PIECE_KEYS) {
+			for (int i = 0; i < 64; i++) {
+				keys[i] = random.nextLong();
+			}
+		}
+		SIDE_KEY = random.nextLong();
+		for (int i = 0; i < 16; i++) {
+			CASTLING_KEYS[i] = random.nextLong();
+		}
+		for (int i = 0; i < 8; i++) {
+			EN_PASSANT_KEYS[i] = random.nextLong();
+		}
+	}
+
+	/**
+	 * The Zobrist key of this position, kept up to date by every move
+	 */
+	private long key;
+	/**
+	 * Whether the last move made was the human's, makeMove and doMove keep
+	 * this up to date, everything else can set it with
+	 * {@link #setComputerToMove(boolean)}
+	 */
+	private boolean computerToMove;
+	/**
+	 * The key and side to move before each doMove, so undoMove can put them
+	 * straight back
+	 */
+	private long[] keyHistory;
+	private boolean[] sideHistory;
+	/**
+	 * state[FLAGS] before each doMove, castling rights and the en passant
+	 * square are put back in one go
+	 */
+	private long[] flagHistory;
+
+	/**
+	 * Creates a chess board with the standard legal starting position
+	 */
+	public BitboardChess(boolean aiIsBlack) {
+		super(aiIsBlack);
+		initBitboards();
+	}
+
+	/**
+	 * Create a board with an initial state
+	 *
+	 * @param inState the initialized state
+	 */
+	public BitboardChess(long[] inState) {
+		super(inState);
+		initBitboards();
+	}
+
+	/**
+	 * Copy a board, the copy is free to be changed without touching the
+	 * original
+	 */
+	protected BitboardChess(BitboardChess other) {
+		super(new long[]{other.state[0], other.state[1], other.state[2], other.state[3],
+				other.state[4], other.state[5], other.state[6], other.state[7], other.state[FLAGS]});
+		bitboards = other.bitboards.clone();
+		key = other.key;
+		computerToMove = other.computerToMove;
+		if (other.attackMaps != null) {
+			attackMaps = other.attackMaps.clone();
+			attackCounts = new byte[][]{other.attackCounts[0].clone(), other.attackCounts[1].clone()};
+		}
+	}
+
+	/**
+	 * The only time we ever look at all 64 squares
+	 */
+	private void initBitboards() {
+		bitboards = new long[16];
+		for (int i = 0; i < 64; i++) {
+			int tile = getTileAtSpot(i);
+			if (tile != EMPTY) {
+				bitboards[tile] |= 1L << i;
+				bitboards[tile & 8] |= 1L << i;
+			}
+		}
+		key = computeKey();
+	}
+
+	/**
+	 * Work out the Zobrist key from scratch
+	 */
+	private long computeKey() {
+		long out = computerToMove ? SIDE_KEY : 0;
+		for (int tile = 1; tile < 16; tile++) {
+			if ((tile & 7) != EMPTY) {
+				for (long pieces = bitboards[tile]; pieces != 0; pieces &= pieces - 1) {
+					out ^= PIECE_KEYS[tile][Long.numberOfTrailingZeros(pieces)];
+				}
+			}
+		}
+		return out ^ getFlagsKey(state[FLAGS]);
+	}
+
+	/**
+	 * The part of the key that comes from state[FLAGS]
+	 */
+	private static long getFlagsKey(long flags) {
+		long out = CASTLING_KEYS[(int) flags & ALL_CASTLING];
+		int enPassant = (int) (flags >> 4) & 63;
+		return enPassant == 0 ? out : out ^ EN_PASSANT_KEYS[enPassant & 7];
+	}
+
+	/**
+	 * Replace the castling rights and en passant square, keeping the key in
+	 * step
+	 */
+	private void setFlags(long flags) {
+		key ^= getFlagsKey(state[FLAGS]) ^ getFlagsKey(flags);
+		state[FLAGS] = flags;
+	}
+
+	/**
+	 * Say whose turn it is, for boards that were set up rather than played into
+	 */
+	public void setComputerToMove(boolean computerToMove) {
+		if (this.computerToMove != computerToMove) {
+			this.computerToMove = computerToMove;
+			key ^= SIDE_KEY;
+		}
+	}
+
+	public boolean isComputerToMove() {
+		return computerToMove;
+	}
+
+	/**
+	 * Every square occupied by some piece
+	 */
+	public long getOccupied() {
+		return bitboards[WHITE << 3] | bitboards[BLACK << 3];
+	}
+
+	/**
+	 * @param tile a piece and color, as stored in the mailbox
+	 * @return every square holding that piece
+	 */
+	public long getPieces(int tile) {
+		return bitboards[tile & 15];
+	}
+
+	/**
+	 * Overwrite one square in both the mailbox and the bitboards, remembering
+	 * what used to be there if we are inside a doMove
+	 *
+	 * @param spot the square to change
+	 * @param tile the new piece and color
+	 */
+	private void put(int spot, int tile) {
+		int old = getTileAtSpot(spot);
+		if (ply > 0) {
+			journal[journalTop++] = (spot << 8) + old;
+		}
+		if (old != EMPTY) {
+			key ^= PIECE_KEYS[old][spot];
+		}
+		if (tile != EMPTY) {
+			key ^= PIECE_KEYS[tile][spot];
+		}
+		place(spot, tile);
+	}
+
+	/**
+	 * Overwrite one square in both the mailbox and the bitboards
+	 */
+	private void place(int spot, int tile) {
+		int old = getTileAtSpot(spot);
+		long bit = 1L << spot;
+		if (old != EMPTY) {
+			bitboards[old] &= ~bit;
+			bitboards[old & 8] &= ~bit;
+		}
+		if (tile != EMPTY) {
+			bitboards[tile] |= bit;
+			bitboards[tile & 8] |= bit;
+		}
+		setTileAtSpot(state, spot, tile);
+	}
+
+	@Override
+	public void setTile(int spot, int tile) {
+		beginAttackUpdate(1L << spot);
+		put(spot, tile);
+		endAttackUpdate();
+	}
+
+	//======Attack maps======
+	/*
+	 * Optionally, every square each side attacks (and how many times) is kept
+	 * up to date by every move, instead of being worked out again by whoever
+	 * asks. A move only changes the attacks of the pieces it moves, takes or
+	 * puts down, and of the sliders looking at the squares it touched (their
+	 * lines get longer or shorter). Knights, pawns and kings don't care what
+	 * is in the way. So we take those pieces' attacks off the counts before
+	 * the move and put them back after it, nothing else changes. The search
+	 * turns them on with AlphaBetaNode.ATTACK_MAPS, DifferentialVerifier for
+	 * half its games
+	 */
+	/**
+	 * Every square each side attacks, indexed WHITE/BLACK, or null if the maps
+	 * are turned off
+	 */
+	private long[] attackMaps;
+	/**
+	 * How many of each side's pieces attack each square
+	 */
+	private byte[][] attackCounts;
+	/**
+	 * The squares whose pieces had their attacks taken off by
+	 * beginAttackUpdate, which endAttackUpdate puts back
+	 */
+	private long attackUpdateSquares;
+
+	/**
+	 * Start keeping the attack maps, they stay on for this board and any copy
+	 * of it
+	 */
+	public void enableAttackMaps() {
+		attackMaps = new long[2];
+		attackCounts = new byte[2][64];
+		long occupied = getOccupied();
+		for (long pieces = occupied; pieces != 0; pieces &= pieces - 1) {
+			int spot = Long.numberOfTrailingZeros(pieces);
+			addAttacks(spot, getTileAtSpot(spot), occupied, 1);
+		}
+	}
+
+	public boolean hasAttackMaps() {
+		return attackMaps != null;
+	}
+
+	/**
+	 * How many of the side's pieces attack the square (0 if the maps are off),
+	 * for evaluation terms and exchange counting that want more than yes or no
+	 */
+	public int getAttackCount(int square, boolean byComputer) {
+		return attackCounts == null ? 0 : attackCounts[byComputer ? BLACK : WHITE][square];
+	}
+
+	@Override
+	public long attackedSquaresMask(boolean byComputer) {
+		if (attackMaps != null) {
+			return attackMaps[byComputer ? BLACK : WHITE];
+		}
+		int side = byComputer ? BLACK << 3 : WHITE << 3;
+		long occupied = getOccupied();
+		long out = Bitboards.pawnAttacks(bitboards[PAWN + side], byComputer)
+				| Bitboards.knightAttacks(bitboards[KNIGHT + side]);
+		for (long sliders = bitboards[BISHOP + side] | bitboards[QUEEN + side]; sliders != 0; sliders &= sliders - 1) {
+			out |= Bitboards.bishopAttacks(Long.numberOfTrailingZeros(sliders), occupied);
+		}
+		for (long sliders = bitboards[ROOK + side] | bitboards[QUEEN + side]; sliders != 0; sliders &= sliders - 1) {
+			out |= Bitboards.rookAttacks(Long.numberOfTrailingZeros(sliders), occupied);
+		}
+		for (long kings = bitboards[KING + side]; kings != 0; kings &= kings - 1) {
+			out |= Bitboards.KING_ATTACKS[Long.numberOfTrailingZeros(kings)];
+		}
+		return out;
+	}
+
+	/**
+	 * Call before changing the squares in changed: takes the attacks of every
+	 * piece that could be affected off the counts
+	 */
+	private void beginAttackUpdate(long changed) {
+		if (attackMaps == null) {
+			return;
+		}
+		long occupied = getOccupied();
+		long diagonal = bitboards[BISHOP] | bitboards[BISHOP + 8] | bitboards[QUEEN] | bitboards[QUEEN + 8];
+		long straight = bitboards[ROOK] | bitboards[ROOK + 8] | bitboards[QUEEN] | bitboards[QUEEN + 8];
+		long affected = changed;
+		for (long squares = changed; squares != 0; squares &= squares - 1) {
+			int spot = Long.numberOfTrailingZeros(squares);
+			affected |= (Bitboards.bishopAttacks(spot, occupied) & diagonal) | (Bitboards.rookAttacks(spot, occupied) & straight);
+		}
+		for (long pieces = affected & occupied; pieces != 0; pieces &= pieces - 1) {
+			int spot = Long.numberOfTrailingZeros(pieces);
+			addAttacks(spot, getTileAtSpot(spot), occupied, -1);
+		}
+		attackUpdateSquares = affected;
+	}
+
+	/**
+	 * Call once the squares have changed: puts back the attacks of whatever
+	 * now stands where beginAttackUpdate took them off
+	 */
+	private void endAttackUpdate() {
+		if (attackMaps == null) {
+			return;
+		}
+		long occupied = getOccupied();
+		for (long pieces = attackUpdateSquares & occupied; pieces != 0; pieces &= pieces - 1) {
+			int spot = Long.numberOfTrailingZeros(pieces);
+			addAttacks(spot, getTileAtSpot(spot), occupied, 1);
+		}
+	}
+
+	/**
+	 * Add (or with delta -1 take away) the attacks of one piece
+	 */
+	private void addAttacks(int spot, int tile, long occupied, int delta) {
+		int side = tile >> 3;
+		byte[] counts = attackCounts[side];
+		long map = attackMaps[side];
+		for (long targets = getAttacks(tile, spot, occupied); targets != 0; targets &= targets - 1) {
+			int square = Long.numberOfTrailingZeros(targets);
+			if ((counts[square] += delta) == 0) {
+				map &= ~(1L << square);
+			} else {
+				map |= 1L << square;
+			}
+		}
+		attackMaps[side] = map;
+	}
+
+	/**
+	 * Every square a piece on spot attacks
+	 */
+	private static long getAttacks(int tile, int spot, long occupied) {
+		switch (tile & 7) {
+			case PAWN:
+				return Bitboards.PAWN_ATTACKS[tile >> 3][spot];
+			case KNIGHT:
+				return Bitboards.KNIGHT_ATTACKS[spot];
+			case BISHOP:
+				return Bitboards.bishopAttacks(spot, occupied);
+			case ROOK:
+				return Bitboards.rookAttacks(spot, occupied);
+			case QUEEN:
+				return Bitboards.queenAttacks(spot, occupied);
+			case KING:
+				return Bitboards.KING_ATTACKS[spot];
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * The squares a move will change, so the attack maps know what to update
+	 */
+	private long getTouchedSquares(int move) {
+		int start = move & 63;
+		int end = (move >> 6) & 63;
+		long out = (1L << start) | (1L << end);
+		if ((move & Move.CASTLE) != 0) {
+			//the rook's corner and where it lands, next to the king's start
+			out |= (end & 7) == 2 ? (1L << (end - 2)) | (1L << (end + 1)) : (1L << (end + 1)) | (1L << (end - 1));
+		} else if ((getTileAtSpot(start) & 7) == PAWN && end == getEnPassantSquare() && (end & 7) != (start & 7)) {
+			out |= 1L << (end + ((end >> 3) == 2 ? 8 : -8));
+		}
+		return out;
+	}
+
+	/**
+	 * The Zobrist key, which covers the pieces, the side to move, castling
+	 * rights and the en passant column. It is never recomputed, make and unmake
+	 * keep it up to date
+	 */
+	@Override
+	public long hash() {
+		return key;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (key ^ (key >>> 32));
+	}
+
+	@Override
+	public boolean isInCheck(boolean isAgainstComputerPlayer) {
+		long king = bitboards[KING + (isAgainstComputerPlayer ? BLACK << 3 : WHITE << 3)];
+		return king != 0 && isSquareAttacked(Long.numberOfTrailingZeros(king), !isAgainstComputerPlayer);
+	}
+
+	/**
+	 * Whether a side has anything besides its king and pawns. Without it,
+	 * having to move is often the worst thing that can happen (zugzwang)
+	 */
+	public boolean hasPieces(boolean isComputer) {
+		int color = isComputer ? BLACK << 3 : WHITE << 3;
+		return (bitboards[color + KNIGHT] | bitboards[color + BISHOP] | bitboards[color + ROOK] | bitboards[color + QUEEN]) != 0;
+	}
+
+	@Override
+	public boolean isSquareAttacked(int square, boolean byComputer) {
+		if (attackMaps != null) {
+			return (attackMaps[byComputer ? BLACK : WHITE] & (1L << square)) != 0;
+		}
+		return attackersOf(square, getOccupied(), byComputer ? BLACK << 3 : WHITE << 3) != 0;
+	}
+
+	@Override
+	public long getPieceSquares(boolean isComputer) {
+		return bitboards[isComputer ? BLACK << 3 : WHITE << 3];
+	}
+
+	/**
+	 * The king bitboards always know where the kings are, no caching needed
+	 */
+	@Override
+	public int getKingSquare(boolean isComputerKing) {
+		long king = bitboards[KING + (isComputerKing ? BLACK << 3 : WHITE << 3)];
+		return king == 0 ? -1 : Long.numberOfTrailingZeros(king);
+	}
+
+	@Override
+	public int getValue() {
+		long occupied = getOccupied();
+		//encourage not moving the king or rook... heavily
+		int value = getCastlingRightsBonus(getCastlingRights());
+		for (int piece = PAWN; piece <= KING; piece++) {
+			value += (Long.bitCount(bitboards[piece + (BLACK << 3)]) - Long.bitCount(bitboards[piece])) * VALUES[piece];
+		}
+		//lightly encourage piece developement, and discourage hostile developement
+		value += 50 * Long.bitCount((bitboards[BISHOP + 8] | bitboards[KNIGHT + 8]) & ~Bitboards.ROW_0);
+		value -= 50 * Long.bitCount((bitboards[BISHOP] | bitboards[KNIGHT]) & ~Bitboards.ROW_7);
+		//lightly encourage moving pawns up the board, and discourage enemy advancement
+		for (long pawns = bitboards[PAWN + 8]; pawns != 0; pawns &= pawns - 1) {
+			value += PAWN_VALUE_TABLE[Long.numberOfTrailingZeros(pawns) >> 3];
+		}
+		for (long pawns = bitboards[PAWN]; pawns != 0; pawns &= pawns - 1) {
+			value -= PAWN_VALUE_TABLE[7 - (Long.numberOfTrailingZeros(pawns) >> 3)];
+		}
+
+		if (Long.bitCount(occupied) < 5) {
+			//every square either side "attacks", and nothing for the computer
+			long compChecks = getTargets(false) | getTargets(true);
+			long compKing = bitboards[KING + (BLACK << 3)];
+			int start = compKing == 0 ? 0 : Long.numberOfTrailingZeros(compKing);
+			int compKingStartX = start % 8;
+			int compKingStartY = start & 0b111000;
+			int compBoxSize = getFloodFillSize(start, 0L);
+			long humanKing = bitboards[KING];
+			if (humanKing != 0) {
+				start = Long.numberOfTrailingZeros(humanKing);
+			}
+			int humanKingStartX = start % 8;
+			int humanKingStartY = start & 0b111000;
+			value += (4 - Math.max(Math.abs(humanKingStartX - compKingStartX), Math.abs(humanKingStartY - compKingStartY)));
+			int humanBoxSize = getFloodFillSize(start, compChecks);
+			value -= (64 - compBoxSize) << 1;
+			value += (64 - humanBoxSize) << 1;
+		} else {
+			//encourage owning a spot in the center, an empty one counts against us
+			value += ((Long.bitCount(bitboards[BLACK << 3] & CENTER) << 1) - 4) * 35;
+			//incentivize castling
+			long kings = bitboards[KING] | bitboards[KING + 8];
+			long rooks = bitboards[ROOK] | bitboards[ROOK + 8];
+			if ((kings & (1L << 2)) != 0 && (rooks & (1L << 3)) != 0) {
+				value += 150;
+			}
+			if ((kings & (1L << 6)) != 0 && (rooks & (1L << 5)) != 0) {
+				value += 200;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * The four squares in the middle of the board
+	 */
+	private static final long CENTER = (1L << 27) | (1L << 28) | (1L << 35) | (1L << 36);
+
+	/**
+	 * Add a move from start to every square in targets, flagged as a capture
+	 * where it lands on an enemy
+	 *
+	 * @return the new number of moves
+	 */
+	private static int addMoves(int[] moves, int count, int start, long targets, long enemy) {
+		while (targets != 0) {
+			int end = Long.numberOfTrailingZeros(targets);
+			moves[count++] = Move.make(start, end, (enemy & (1L << end)) != 0 ? Move.CAPTURE : 0);
+			targets &= targets - 1;
+		}
+		return count;
+	}
+
+	/**
+	 * The same for a pawn, which can also promote or take en passant
+	 */
+	private static int addPawnMoves(int[] moves, int count, int start, long targets, long enemy, long lastRow, int enPassant) {
+		while (targets != 0) {
+			moves[count++] = getPawnMove(start, Long.numberOfTrailingZeros(targets), enemy, lastRow, enPassant);
+			targets &= targets - 1;
+		}
+		return count;
+	}
+
+	private static int getPawnMove(int start, int end, long enemy, long lastRow, int enPassant) {
+		int flags = (enemy & (1L << end)) != 0 ? Move.CAPTURE : 0;
+		if ((lastRow & (1L << end)) != 0) {
+			flags |= Move.PROMOTION;
+		} else if (end == enPassant && (end & 7) != (start & 7)) {
+			flags |= Move.CAPTURE | Move.EN_PASSANT;
+		}
+		return Move.make(start, end, flags);
+	}
+
+	/**
+	 * Same as {@link Chess#getTargets(boolean)}, a piece type at a time
+	 * instead of a square at a time
+	 */
+	@Override
+	public long getTargets(boolean isComputerMove) {
+		int side = isComputerMove ? BLACK << 3 : WHITE << 3;
+		long own = bitboards[side];
+		long empty = ~getOccupied();
+		long occupied = ~empty;
+		long pawns = bitboards[PAWN + side];
+		long targets = Bitboards.pawnAttacks(pawns, isComputerMove);
+		if (isComputerMove) {
+			long single = (pawns << 8) & empty;
+			targets |= single | (((single & Bitboards.ROW_2) << 8) & empty);
+		} else {
+			long single = (pawns >>> 8) & empty;
+			targets |= single | (((single & Bitboards.ROW_5) >>> 8) & empty);
+		}
+		targets |= Bitboards.knightAttacks(bitboards[KNIGHT + side]) & ~own;
+		for (long sliders = bitboards[BISHOP + side] | bitboards[QUEEN + side]; sliders != 0; sliders &= sliders - 1) {
+			targets |= Bitboards.bishopAttacks(Long.numberOfTrailingZeros(sliders), occupied) & ~own;
+		}
+		for (long sliders = bitboards[ROOK + side] | bitboards[QUEEN + side]; sliders != 0; sliders &= sliders - 1) {
+			targets |= Bitboards.rookAttacks(Long.numberOfTrailingZeros(sliders), occupied) & ~own;
+		}
+		return targets;
+	}
+
+	/**
+	 * Every piece of the given side (BLACK << 3 or WHITE << 3) that attacks the
+	 * square, pretending the board is only occupied where occupied says so
+	 */
+	private long attackersOf(int square, long occupied, int bySide) {
+		return (Bitboards.KNIGHT_ATTACKS[square] & bitboards[KNIGHT + bySide])
+				| (Bitboards.PAWN_ATTACKS[(bySide ^ 8) >> 3][square] & bitboards[PAWN + bySide])
+				| (Bitboards.KING_ATTACKS[square] & bitboards[KING + bySide])
+				| (Bitboards.bishopAttacks(square, occupied) & (bitboards[BISHOP + bySide] | bitboards[QUEEN + bySide]))
+				| (Bitboards.rookAttacks(square, occupied) & (bitboards[ROOK + bySide] | bitboards[QUEEN + bySide]));
+	}
+
+	/**
+	 * Whether the king on kingLoc would be safe if the pieces on vacated were
+	 * lifted off the board and the squares in filled were taken by our own
+	 * pieces. This is the slow way of checking legality, for the handful of
+	 * moves the pin and check masks can't vouch for (king moves, castling and
+	 * en passant)
+	 */
+	private boolean isKingSafeAfter(int kingLoc, long vacated, long filled, int side) {
+		long enemy = bitboards[side ^ 8] & ~vacated & ~filled;
+		long occupied = ((bitboards[side] & ~vacated) | filled) | enemy;
+		return (attackersOf(kingLoc, occupied, side ^ 8) & enemy) == 0;
+	}
+
+	/**
+	 * Which moves {@link #generateMoves} should produce: captures (which here
+	 * includes en passant and pushing a pawn to the last row, anything that
+	 * changes the material) and/or everything else
+	 */
+	public static final int CAPTURES = 1;
+	public static final int QUIETS = 2;
+	public static final int ALL_MOVES = CAPTURES | QUIETS;
+	/**
+	 * No position has anywhere near this many moves (the record is 218), so a
+	 * buffer this size never overflows
+	 */
+	public static final int MAX_MOVES = 256;
+
+	/**
+	 * Somewhere for getPossibleMoves and isLegalMove to generate into before
+	 * copying the moves out
+	 */
+	private int[] scratch;
+
+	/**
+	 * The moves without their {@link Move} flags, so they look exactly like
+	 * the ones Chess makes. The int[] generators keep the flags
+	 */
+	@Override
+	public ArrayList<Integer> getPossibleMoves(boolean isComputerMove, boolean considerKing, boolean shouldIgnoreChecks) {
+		if (scratch == null) {
+			scratch = new int[MAX_MOVES];
+		}
+		int count = generateMoves(scratch, 0, isComputerMove, considerKing, shouldIgnoreChecks, ALL_MOVES, -1L);
+		ArrayList<Integer> toRet = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			toRet.add(Move.toLegacy(scratch[i]));
+		}
+		return toRet;
+	}
+
+	/**
+	 * Every legal move of the given kind, written into moves starting at count
+	 *
+	 * @param kinds {@link #CAPTURES}, {@link #QUIETS} or {@link #ALL_MOVES}
+	 * @return the new number of moves
+	 */
+	public int generateMoves(int[] moves, int count, boolean isComputerMove, int kinds) {
+		return generateMoves(moves, count, isComputerMove, true, false, kinds, -1L);
+	}
+
+	/**
+	 * Just the legal captures, what quiescence search looks at when it isn't
+	 * in check
+	 */
+	public int generateCaptures(int[] moves, int count, boolean isComputerMove) {
+		return generateMoves(moves, count, isComputerMove, true, false, CAPTURES, -1L);
+	}
+
+	/**
+	 * The ways out of check. While in check every legal move is one (the check
+	 * mask has already thrown the rest away), so quiescence search can't
+	 * stand pat and has to look at all of them, quiet or not
+	 */
+	public int generateEvasions(int[] moves, int count, boolean isComputerMove) {
+		return generateMoves(moves, count, isComputerMove, true, false, ALL_MOVES, -1L);
+	}
+
+	/**
+	 * Generates into the scratch buffer, nothing is boxed or kept
+	 */
+	@Override
+	public int countLegalMoves(boolean isComputerMove) {
+		if (scratch == null) {
+			scratch = new int[MAX_MOVES];
+		}
+		return generateMoves(scratch, 0, isComputerMove, true, false, ALL_MOVES, -1L);
+	}
+
+	/**
+	 * One piece at a time, so a position with a move (nearly all of them)
+	 * usually only generates the moves of its first piece
+	 */
+	@Override
+	public boolean hasAnyLegalMove(boolean isComputerMove) {
+		if (scratch == null) {
+			scratch = new int[MAX_MOVES];
+		}
+		long pieces = bitboards[isComputerMove ? BLACK << 3 : WHITE << 3];
+		for (; pieces != 0; pieces &= pieces - 1) {
+			if (generateMoves(scratch, 0, isComputerMove, true, false, ALL_MOVES, pieces & -pieces) > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether the move could be played here, for moves that came from
+	 * somewhere other than this position (the hash table, killer moves). Only
+	 * the moves of the one piece are generated
+	 */
+	public boolean isLegalMove(int move, boolean isComputerMove) {
+		if (scratch == null) {
+			scratch = new int[MAX_MOVES];
+		}
+		int count = generateMoves(scratch, 0, isComputerMove, true, false, ALL_MOVES, 1L << (move & 63));
+		for (int i = 0; i < count; i++) {
+			if (scratch[i] == move) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Same as {@link Chess}, except that when checks matter we never try the
+	 * moves out on a copy of the board. Instead the pieces giving check and
+	 * the pieces pinned to the king are found once, and every move is cut down
+	 * to the squares that block or capture the checker (checkMask) and, for
+	 * pinned pieces, to the line through the king. King moves, castling and
+	 * en passant are checked one by one against the attack tables
+	 *
+	 * @param kinds which moves we want, see {@link #CAPTURES}
+	 * @param from only the pieces on these squares get to move
+	 * @return the new number of moves
+	 */
+	private int generateMoves(int[] moves, int count, boolean isComputerMove, boolean considerKing, boolean shouldIgnoreChecks, int kinds, long from) {
+		int side = isComputerMove ? BLACK << 3 : WHITE << 3;
+		long own = bitboards[side];
+		long enemy = bitboards[side ^ 8];
+		long occupied = own | enemy;
+		long empty = ~occupied;
+		long wanted = ((kinds & CAPTURES) != 0 ? enemy : 0) | ((kinds & QUIETS) != 0 ? empty : 0);
+
+		//with no king of our own nothing can be illegal
+		long king = bitboards[KING + side];
+		boolean legalOnly = !shouldIgnoreChecks && king != 0;
+		int kingLoc = Long.numberOfTrailingZeros(king);
+		long checkMask = -1L;
+		long pinned = 0;
+		if (legalOnly) {
+			long checkers = attackersOf(kingLoc, occupied, side ^ 8);
+			if (Long.bitCount(checkers) > 1) {
+				//double check, only the king can move
+				checkMask = 0;
+			} else if (checkers != 0) {
+				checkMask = checkers | Bitboards.BETWEEN[kingLoc][Long.numberOfTrailingZeros(checkers)];
+			}
+			long snipers = (Bitboards.rookAttacks(kingLoc, enemy) & (bitboards[ROOK + (side ^ 8)] | bitboards[QUEEN + (side ^ 8)]))
+					| (Bitboards.bishopAttacks(kingLoc, enemy) & (bitboards[BISHOP + (side ^ 8)] | bitboards[QUEEN + (side ^ 8)]));
+			for (; snipers != 0; snipers &= snipers - 1) {
+				long blockers = Bitboards.BETWEEN[kingLoc][Long.numberOfTrailingZeros(snipers)] & occupied;
+				if ((blockers & (blockers - 1)) == 0 && (blockers & own) != 0) {
+					pinned |= blockers;
+				}
+			}
+		}
+
+		//pawns can take anything diagonal when we are only looking for attacks,
+		//and can always take en passant
+		int enPassant = getEnPassantSquare();
+		long enPassantBit = enPassant < 0 ? 0 : 1L << enPassant;
+		long pawnCaptures = considerKing ? enemy | (getEnPassantSquareFor(isComputerMove) < 0 ? 0 : enPassantBit) : -1L;
+		long lastRow = isComputerMove ? Bitboards.ROW_7 : Bitboards.ROW_0;
+		for (long pawns = bitboards[PAWN + side] & from; pawns != 0; pawns &= pawns - 1) {
+			int i = Long.numberOfTrailingZeros(pawns);
+			long pawn = 1L << i;
+			long single = isComputerMove ? (pawn << 8) & empty : (pawn >>> 8) & empty;
+			long targets = single;
+			if (isComputerMove && (pawn & Bitboards.ROW_1) != 0) {
+				targets |= (single << 8) & empty;
+			} else if (!isComputerMove && (pawn & Bitboards.ROW_6) != 0) {
+				targets |= (single >>> 8) & empty;
+			}
+			//pushing to the last row counts as a capture, it makes a queen
+			targets &= (kinds & QUIETS) != 0 ? ((kinds & CAPTURES) != 0 ? -1L : ~lastRow) : lastRow;
+			if ((kinds & CAPTURES) != 0) {
+				targets |= Bitboards.PAWN_ATTACKS[side >> 3][i] & pawnCaptures;
+			}
+			if (legalOnly) {
+				//taking en passant takes a pawn that isn't where we land, and
+				//when only looking for attacks a pawn can even land on its own
+				//side, so those get the slow treatment
+				long captures = Bitboards.PAWN_ATTACKS[side >> 3][i];
+				for (long odd = targets & ((captures & enPassantBit) | own); odd != 0; odd &= odd - 1) {
+					int end = Long.numberOfTrailingZeros(odd);
+					long vacated = pawn;
+					if (end == enPassant) {
+						vacated |= 1L << (end + ((end >> 3) == 2 ? 8 : -8));
+					}
+					if (((vacated | (1L << end)) & king) != 0 || isKingSafeAfter(kingLoc, vacated, 1L << end, side)) {
+						moves[count++] = getPawnMove(i, end, enemy, lastRow, enPassant);
+					}
+				}
+				targets &= ~((captures & enPassantBit) | own) & checkMask;
+				if ((pinned & pawn) != 0) {
+					targets &= Bitboards.LINE[kingLoc][i];
+				}
+			}
+			count = addPawnMoves(moves, count, i, targets, enemy, lastRow, enPassant);
+		}
+		long movable = (legalOnly ? checkMask & ~own : ~own) & wanted;
+		for (long knights = bitboards[KNIGHT + side] & ~pinned & from; knights != 0; knights &= knights - 1) {
+			//a pinned knight can never move
+			int i = Long.numberOfTrailingZeros(knights);
+			count = addMoves(moves, count, i, Bitboards.KNIGHT_ATTACKS[i] & movable, enemy);
+		}
+		for (long bishops = bitboards[BISHOP + side] & from; bishops != 0; bishops &= bishops - 1) {
+			int i = Long.numberOfTrailingZeros(bishops);
+			count = addMoves(moves, count, i, Bitboards.bishopAttacks(i, occupied) & movable & pinLine(pinned, kingLoc, i), enemy);
+		}
+		for (long rooks = bitboards[ROOK + side] & from; rooks != 0; rooks &= rooks - 1) {
+			int i = Long.numberOfTrailingZeros(rooks);
+			count = addMoves(moves, count, i, Bitboards.rookAttacks(i, occupied) & movable & pinLine(pinned, kingLoc, i), enemy);
+		}
+		for (long queens = bitboards[QUEEN + side] & from; queens != 0; queens &= queens - 1) {
+			int i = Long.numberOfTrailingZeros(queens);
+			count = addMoves(moves, count, i, Bitboards.queenAttacks(i, occupied) & movable & pinLine(pinned, kingLoc, i), enemy);
+		}
+		if (considerKing) {
+			for (long kings = king & from; kings != 0; kings &= kings - 1) {
+				int i = Long.numberOfTrailingZeros(kings);
+				long targets = Bitboards.KING_ATTACKS[i] & ~own & wanted;
+				if (legalOnly) {
+					//the king can't hide behind itself, so take it off the board
+					//before asking what attacks where it's going
+					long withoutKing = occupied ^ king;
+					if (attackMaps != null) {
+						//attacked with the king still there is attacked without it
+						targets &= ~attackMaps[(side ^ 8) >> 3];
+					}
+					for (long steps = targets; steps != 0; steps &= steps - 1) {
+						int end = Long.numberOfTrailingZeros(steps);
+						if ((attackersOf(end, withoutKing, side ^ 8) & ~(1L << end)) != 0) {
+							targets &= ~(1L << end);
+						}
+					}
+				}
+				count = addMoves(moves, count, i, targets, enemy);
+				//if the king is unmoved, see if we can castle
+				if ((kinds & QUIETS) != 0 && (getCastlingRights() & (side == 8 ? CASTLE_0 | CASTLE_7 : CASTLE_56 | CASTLE_63)) != 0) {
+					count = addCastles(moves, count, i, side, isComputerMove, legalOnly);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Where the piece on spot may go without exposing the king, everywhere if
+	 * it isn't pinned
+	 */
+	private static long pinLine(long pinned, int kingLoc, int spot) {
+		return (pinned & (1L << spot)) == 0 ? -1L : Bitboards.LINE[kingLoc][spot];
+	}
+
+	/**
+	 * Castling follows the same rules as {@link Chess}: the king's home square
+	 * and the square the rook lands on must not be attacked, and the squares in
+	 * between must be empty. On top of that a legal castle can't leave the king
+	 * in check where it lands
+	 */
+	private int addCastles(int[] moves, int count, int i, int side, boolean isComputerMove, boolean legalOnly) {
+		if (isSquareAttacked(60 - 7 * side, !isComputerMove)) {
+			return count;
+		}
+		long occupied = getOccupied();
+		int rights = getCastlingRights();
+		if (side == 8) {
+			if ((rights & CASTLE_0) != 0 && (occupied & 0xEL) == 0 && !isSquareAttacked(3, false)) {
+				count = addCastle(moves, count, i, 2, 0, 3, side, legalOnly);
+			}
+			if ((rights & CASTLE_7) != 0 && (occupied & 0x60L) == 0 && !isSquareAttacked(5, false)) {
+				count = addCastle(moves, count, i, 6, 7, 5, side, legalOnly);
+			}
+		} else {
+			if ((rights & CASTLE_56) != 0 && (occupied & (0xEL << 56)) == 0 && !isSquareAttacked(59, true)) {
+				count = addCastle(moves, count, i, 58, 56, 59, side, legalOnly);
+			}
+			if ((rights & CASTLE_63) != 0 && (occupied & (0x60L << 56)) == 0 && !isSquareAttacked(61, true)) {
+				count = addCastle(moves, count, i, 62, 63, 61, side, legalOnly);
+			}
+		}
+		return count;
+	}
+
+	private int addCastle(int[] moves, int count, int kingStart, int kingEnd, int rookStart, int rookEnd, int side, boolean legalOnly) {
+		if (!legalOnly || isKingSafeAfter(kingEnd, (1L << kingStart) | (1L << rookStart), (1L << kingEnd) | (1L << rookEnd), side)) {
+			moves[count++] = Move.make(kingStart, kingEnd, Move.CASTLE);
+		}
+		return count;
+	}
+
+	/**
+	 * The bottom 6 bits represent the initial spot, and the next 6 bits
+	 * represent the final spot
+	 *
+	 * @param move
+	 * @param isComputerTurn
+	 * @return
+	 */
+	@Override
+	public Board makeMove(int move, boolean isComputerTurn) {
+		BitboardChess child = new BitboardChess(this);
+		child.applyMove(move, isComputerTurn);
+		return child;
+	}
+
+	/**
+	 * Make a move on this board in place, the opposite of
+	 * {@link #undoMove()}. This never allocates, so the search can walk the
+	 * whole tree on a single board
+	 *
+	 * @param move the move, encoded the same way as for makeMove
+	 * @param isComputerTurn whether or not the computer is making the move
+	 */
+	public void doMove(int move, boolean isComputerTurn) {
+		pushPly();
+		applyMove(move, isComputerTurn);
+	}
+
+	/**
+	 * Pass: nothing moves, but it is the other side's turn (and nobody can
+	 * take en passant any more). Not a legal chess move, but the search uses
+	 * it to ask whether a position is so good that even giving the opponent a
+	 * free move doesn't help them. Taken back with {@link #undoMove()} like
+	 * any other move
+	 *
+	 * @param isComputerTurn whether or not the computer is the one passing
+	 */
+	public void doNullMove(boolean isComputerTurn) {
+		pushPly();
+		setFlags(makeFlags(getCastlingRights(), -1));
+		setComputerToMove(!isComputerTurn);
+	}
+
+	/**
+	 * Remember everything undoMove can't work out from the journal
+	 */
+	private void pushPly() {
+		if (journal == null) {
+			journal = new int[MAX_PLY << 3];
+			journalMarks = new int[MAX_PLY];
+			keyHistory = new long[MAX_PLY];
+			sideHistory = new boolean[MAX_PLY];
+			flagHistory = new long[MAX_PLY];
+		}
+		keyHistory[ply] = key;
+		sideHistory[ply] = computerToMove;
+		flagHistory[ply] = state[FLAGS];
+		journalMarks[ply++] = journalTop;
+	}
+
+	/**
+	 * Take back the last move made with {@link #doMove(int, boolean)}, putting
+	 * back whatever was captured along with the castling rights, en passant
+	 * square and the key
+	 */
+	public void undoMove() {
+		int mark = journalMarks[--ply];
+		if (attackMaps != null) {
+			long changed = 0;
+			for (int i = mark; i < journalTop; i++) {
+				changed |= 1L << (journal[i] >> 8);
+			}
+			beginAttackUpdate(changed);
+		}
+		while (journalTop > mark) {
+			int entry = journal[--journalTop];
+			place(entry >> 8, entry & 255);
+		}
+		endAttackUpdate();
+		key = keyHistory[ply];
+		computerToMove = sideHistory[ply];
+		state[FLAGS] = flagHistory[ply];
+	}
+
+	/**
+	 * Does the same thing as {@link Chess#getNewState(int, boolean)} to this
+	 * board, touching only the squares the move changes
+	 */
+	protected void applyMove(int move, boolean isComputerTurn) {
+		int start = move & 63;
+		int end = (move >> 6) & 63;
+		int tile = getTileAtSpot(start);
+		int rights = getCastlingRights() & CASTLING_MASKS[start] & CASTLING_MASKS[end];
+		int enPassant = -1;
+		if (attackMaps != null) {
+			beginAttackUpdate(getTouchedSquares(move));
+		}
+		if ((tile & 7) == KING) {
+			rights &= (tile & 8) == 8 ? CASTLE_56 | CASTLE_63 : CASTLE_0 | CASTLE_7;
+		}
+		if ((move & (1 << 12)) > 0) {
+			switch (end) {
+				case 2:
+					put(0, 0);
+					put(3, ROOK + 8);
+					break;
+				case 6:
+					put(7, 0);
+					put(5, ROOK + 8);
+					break;
+				case 58:
+					put(56, 0);
+					put(59, ROOK);
+					break;
+				case 62:
+					put(63, 0);
+					put(61, ROOK);
+			}
+		} else if ((tile & 7) == PAWN) {
+			if (((end >> 3) == 0 || ((end >> 3) == 7))) {
+				tile += (QUEEN - PAWN);
+			}
+			if (end - start == 16 || start - end == 16) {
+				enPassant = (start + end) >> 1;
+			}
+			//taking en passant takes the pawn next to us
+			if (end == getEnPassantSquare() && (end & 7) != (start & 7)) {
+				put(end + ((end >> 3) == 2 ? 8 : -8), 0);
+			}
+		}
+		put(start, 0);
+		put(end, tile);
+		endAttackUpdate();
+		setFlags(makeFlags(rights, enPassant));
+		setComputerToMove(!isComputerTurn);
+	}
+}
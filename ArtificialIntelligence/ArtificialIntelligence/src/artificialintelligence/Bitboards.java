@@ -0,0 +1,348 @@
+package artificialintelligence;
+
+import java.util.Random;
+
+/**
+ * Static helpers for working with bitboards, a long where bit i is set iff
+ * square i (same numbering as {@link Chess}, 0 is the computer's back corner)
+ * is part of the set.
+ *
+ * @author rohan
+ */
+public final class Bitboards {
+
+	/**
+	 * Squares on the leftmost column (x == 0)
+	 */
+	public static final long FILE_A = 0x0101010101010101L;
+	/**
+	 * Squares on the rightmost column (x == 7)
+	 */
+	public static final long FILE_H = 0x8080808080808080L;
+	/**
+	 * Squares on the computer's back row (y == 0)
+	 */
+	public static final long ROW_0 = 0xFFL;
+	/**
+	 * The row the computer's pawns start on
+	 */
+	public static final long ROW_1 = 0xFFL << 8;
+	/**
+	 * The row a computer pawn crosses on a double move, so the en passant
+	 * square after one, and where single pushes continue from
+	 */
+	public static final long ROW_2 = 0xFFL << 16;
+	/**
+	 * The row a human pawn crosses on a double move, so the en passant
+	 * square after one, and where single pushes continue from
+	 */
+	public static final long ROW_5 = 0xFFL << 40;
+	/**
+	 * The row the human's pawns start on
+	 */
+	public static final long ROW_6 = 0xFFL << 48;
+	/**
+	 * The human's back row (y == 7)
+	 */
+	public static final long ROW_7 = 0xFFL << 56;
+
+	/**
+	 * Where a knight on each square can jump to
+	 */
+	public static final long[] KNIGHT_ATTACKS = new long[64];
+	/**
+	 * Where a king on each square can step to
+	 */
+	public static final long[] KING_ATTACKS = new long[64];
+	/**
+	 * Where a pawn on each square can capture, indexed by color first
+	 * ({@link Chess#WHITE} for the human, {@link Chess#BLACK} for the computer).
+	 * Read the other way round, PAWN_ATTACKS[color][square] is also where the
+	 * other side's pawns would have to be to attack that square
+	 */
+	public static final long[][] PAWN_ATTACKS = new long[2][64];
+
+	/**
+	 * The squares strictly between two squares that share a row, column or
+	 * diagonal, and nothing for any other pair. Whatever stands in there is
+	 * what blocks a check or a pin along that line
+	 */
+	public static final long[][] BETWEEN = new long[64][64];
+	/**
+	 * The whole row, column or diagonal through two squares (edge to edge),
+	 * or nothing if they don't share one. A pinned piece has to stay on the
+	 * line through itself and its king
+	 */
+	public static final long[][] LINE = new long[64][64];
+
+	static {
+		for (int square = 0; square < 64; square++) {
+			KNIGHT_ATTACKS[square] = knightAttacks(1L << square);
+			KING_ATTACKS[square] = kingAttacks(1L << square);
+			PAWN_ATTACKS[Chess.WHITE][square] = pawnAttacks(1L << square, false);
+			PAWN_ATTACKS[Chess.BLACK][square] = pawnAttacks(1L << square, true);
+		}
+		for (int a = 0; a < 64; a++) {
+			long rook = slowRookAttacks(a, 0);
+			long bishop = slowBishopAttacks(a, 0);
+			for (int b = 0; b < 64; b++) {
+				if ((rook & (1L << b)) != 0) {
+					BETWEEN[a][b] = slowRookAttacks(a, 1L << b) & slowRookAttacks(b, 1L << a);
+					LINE[a][b] = (rook & slowRookAttacks(b, 0)) | (1L << a) | (1L << b);
+				} else if ((bishop & (1L << b)) != 0) {
+					BETWEEN[a][b] = slowBishopAttacks(a, 1L << b) & slowBishopAttacks(b, 1L << a);
+					LINE[a][b] = (bishop & slowBishopAttacks(b, 0)) | (1L << a) | (1L << b);
+				}
+			}
+		}
+	}
+
+	private Bitboards() {
+	}
+
+	/**
+	 * Every square a knight on any of the given squares could jump to
+	 */
+	public static long knightAttacks(long knights) {
+		long l1 = (knights & ~FILE_A) >>> 1;
+		long l2 = (knights & ~(FILE_A | (FILE_A << 1))) >>> 2;
+		long r1 = (knights & ~FILE_H) << 1;
+		long r2 = (knights & ~(FILE_H | (FILE_H >>> 1))) << 2;
+		long h1 = l1 | r1;
+		long h2 = l2 | r2;
+		return (h1 << 16) | (h1 >>> 16) | (h2 << 8) | (h2 >>> 8);
+	}
+
+	/**
+	 * Every square next to any of the given squares
+	 */
+	public static long kingAttacks(long kings) {
+		long row = kings | ((kings & ~FILE_A) >>> 1) | ((kings & ~FILE_H) << 1);
+		return (row | (row << 8) | (row >>> 8)) & ~kings;
+	}
+
+	/**
+	 * The diagonal squares pawns on the given squares could capture on
+	 *
+	 * @param pawns the squares the pawns are on
+	 * @param isComputerPawn computer pawns move down the board (+8), human pawns
+	 * move up (-8)
+	 */
+	public static long pawnAttacks(long pawns, boolean isComputerPawn) {
+		if (isComputerPawn) {
+			return ((pawns & ~FILE_A) << 7) | ((pawns & ~FILE_H) << 9);
+		}
+		return ((pawns & ~FILE_A) >>> 9) | ((pawns & ~FILE_H) >>> 7);
+	}
+
+	/**
+	 * The squares a rook on the given square sees, up to and including the
+	 * first occupied square in each direction
+	 */
+	public static long rookAttacks(int square, long occupied) {
+		return ROOK_TABLE[ROOK_OFFSETS[square] + (int) (((occupied & ROOK_MASKS[square]) * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square])];
+	}
+
+	/**
+	 * The squares a bishop on the given square sees, up to and including the
+	 * first occupied square in each direction
+	 */
+	public static long bishopAttacks(int square, long occupied) {
+		return BISHOP_TABLE[BISHOP_OFFSETS[square] + (int) (((occupied & BISHOP_MASKS[square]) * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square])];
+	}
+
+	/**
+	 * A queen is just a rook and a bishop stuck together
+	 */
+	public static long queenAttacks(int square, long occupied) {
+		return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+	}
+
+	//======Magic bitboards======
+	/*
+	 * All right, this one deserves some justification... A slider's attacks only
+	 * depend on the few squares along its rays (the "mask", edges excluded since
+	 * whatever is on them can't block anything). For each square there is a
+	 * "magic" number which, multiplied by the masked occupancy, pushes a unique
+	 * index into the top bits. The table at that index holds the whole attack
+	 * set, so one multiply, one shift and one array read replace the eight ray
+	 * walks. The tables are filled once when this class is loaded and never
+	 * written to afterwards, so every thread can share them.
+	 */
+	private static final long[] ROOK_MASKS = new long[64];
+	private static final int[] ROOK_SHIFTS = new int[64];
+	private static final int[] ROOK_OFFSETS = new int[64];
+	private static final long[] ROOK_TABLE;
+
+	private static final long[] BISHOP_MASKS = new long[64];
+	private static final int[] BISHOP_SHIFTS = new int[64];
+	private static final int[] BISHOP_OFFSETS = new int[64];
+	private static final long[] BISHOP_TABLE;
+
+	/**
+	 * Found by {@link #main(String[])}, searching for them on every start up
+	 * takes over a second
+	 */
+	private static final long[] ROOK_MAGICS = new long[]{
+			0x0080008420144000L, 0x0140001000402000L, 0x8100200100081040L, 0x0580100181040800L,
+			0x0480040002480180L, 0x020002001004C108L, 0x06002600180104ACL, 0x0A00010200804024L,
+			0x1102800320814002L, 0xC000808040002000L, 0x0202802000821000L, 0x4210800800801000L,
+			0x8008808044004800L, 0x0006002418100200L, 0x0A00800200010080L, 0x0202000208804114L,
+			0x0280044002200041L, 0x3010004020004008L, 0x0010002008040022L, 0x8000210008100102L,
+			0x60A2020004110820L, 0x0222008080040002L, 0x00C0840002085110L, 0x02004A0000810454L,
+			0x0080401080008020L, 0x0040200040100048L, 0x0006041200208040L, 0x2010100100210008L,
+			0x5090080080800400L, 0x0022002200042950L, 0x011010040002E108L, 0x0000240200009041L,
+			0x0010400020800080L, 0x0040401000402000L, 0x0200200080801000L, 0x4140080080801003L,
+			0x0000800400800800L, 0x0800040080800200L, 0x1008080284002110L, 0x00A001008A001444L,
+			0x3040002040908000L, 0x1000422010024000L, 0x0040402001010010L, 0x8000100008008080L,
+			0x0084008008028004L, 0x0002000204008080L, 0x0000088210040001L, 0x0280C12080520004L,
+			0x028700800C402B00L, 0x0180200040008080L, 0x80A0008020100080L, 0x0001012010008900L,
+			0x4000040108008180L, 0x000C000402008080L, 0x004B0002002C0900L, 0x0020D42040811200L,
+			0x8844520121004082L, 0x1109150082204001L, 0x0302000820408012L, 0x2081002208041001L,
+			0x0002000804201002L, 0x5101000A28040029L, 0x0100080112489004L, 0x02000E4400288102L
+	};
+	private static final long[] BISHOP_MAGICS = new long[]{
+			0x4014281015002108L, 0x0060020882029000L, 0x1104440082102120L, 0x4004410020042802L,
+			0x0011104020140040L, 0x0006074460005020L, 0x48208E0820040201L, 0x0202050401042240L,
+			0x400C401014208AA0L, 0x01C020064A424100L, 0x0012304408424000L, 0x21008808510C0004L,
+			0x0020141420000024L, 0x0004009004202009L, 0x4002008410080450L, 0x2000088280B82000L,
+			0x4040002410828602L, 0x08448030810A1410L, 0x1010032104008110L, 0x0850810802084244L,
+			0x0804000202112040L, 0x4901008610009420L, 0x31A0402411082800L, 0x8402000107620200L,
+			0x2210311041126208L, 0x0295218018020400L, 0x2092010408104400L, 0x0004040000401080L,
+			0x0020404004010041L, 0x80448A0109080618L, 0x008084110A0A0200L, 0x204C00C000A70440L,
+			0x3010106441114400L, 0x0C94115400181000L, 0x1821403000020400L, 0x2000020082480080L,
+			0x2080408020020200L, 0x0020080040068040L, 0x20089D8888190802L, 0x000F820044408408L,
+			0x2084022006089000L, 0x22510101A0401020L, 0x40000A0802009408L, 0x140483C010420200L,
+			0x0449200208811408L, 0x0002220042000100L, 0x00281000D0800201L, 0x044200A519010200L,
+			0x0300421050080002L, 0x00C0540401080004L, 0x4801010088040034L, 0x8400000210540051L,
+			0x400400404822002CL, 0x2080070448020000L, 0x1B2082100A00A000L, 0x4002021802108000L,
+			0xC000248800901000L, 0x0000024100B01100L, 0x1902103044022100L, 0x0000004404228810L,
+			0x0101000008210100L, 0x0025000820089082L, 0x0008091010008120L, 0x9120024202040010L
+	};
+
+	static {
+		int rookSize = 0;
+		int bishopSize = 0;
+		for (int square = 0; square < 64; square++) {
+			ROOK_MASKS[square] = rookMask(square);
+			BISHOP_MASKS[square] = bishopMask(square);
+			ROOK_SHIFTS[square] = 64 - Long.bitCount(ROOK_MASKS[square]);
+			BISHOP_SHIFTS[square] = 64 - Long.bitCount(BISHOP_MASKS[square]);
+			ROOK_OFFSETS[square] = rookSize;
+			BISHOP_OFFSETS[square] = bishopSize;
+			rookSize += 1 << Long.bitCount(ROOK_MASKS[square]);
+			bishopSize += 1 << Long.bitCount(BISHOP_MASKS[square]);
+		}
+		ROOK_TABLE = new long[rookSize];
+		BISHOP_TABLE = new long[bishopSize];
+		for (int square = 0; square < 64; square++) {
+			//a mistyped magic would quietly hand out the wrong attacks for
+			//some occupancies, so refuse to start instead
+			if (!fillTable(square, true, ROOK_MAGICS[square], ROOK_MASKS[square], ROOK_SHIFTS[square], ROOK_TABLE, ROOK_OFFSETS[square])) {
+				throw new IllegalStateException("ROOK_MAGICS[" + square + "] doesn't work, run Bitboards.main for new ones");
+			}
+			if (!fillTable(square, false, BISHOP_MAGICS[square], BISHOP_MASKS[square], BISHOP_SHIFTS[square], BISHOP_TABLE, BISHOP_OFFSETS[square])) {
+				throw new IllegalStateException("BISHOP_MAGICS[" + square + "] doesn't work, run Bitboards.main for new ones");
+			}
+		}
+	}
+
+	/**
+	 * The squares whose occupancy can change what a rook sees
+	 */
+	private static long rookMask(int square) {
+		long row = ROW_0 << (square & 0b111000);
+		long column = FILE_A << (square & 7);
+		long attacks = slowRookAttacks(square, 0);
+		return (attacks & row & ~(FILE_A | FILE_H)) | (attacks & column & ~(ROW_0 | ROW_7));
+	}
+
+	/**
+	 * The squares whose occupancy can change what a bishop sees
+	 */
+	private static long bishopMask(int square) {
+		return slowBishopAttacks(square, 0) & ~(ROW_0 | ROW_7 | FILE_A | FILE_H);
+	}
+
+	/**
+	 * Walk every subset of the mask (the "carry rippler" trick) and store the
+	 * attack set for each one where the magic says it goes
+	 *
+	 * @return false if two different attack sets wanted the same slot
+	 */
+	private static boolean fillTable(int square, boolean isRook, long magic, long mask, int shift, long[] table, int offset) {
+		int size = 1 << (64 - shift);
+		boolean[] used = new boolean[size];
+		long subset = 0;
+		for (int i = 0; i < size; i++) {
+			long attacks = isRook ? slowRookAttacks(square, subset) : slowBishopAttacks(square, subset);
+			int index = (int) ((subset * magic) >>> shift);
+			if (used[index] && table[offset + index] != attacks) {
+				return false;
+			}
+			used[index] = true;
+			table[offset + index] = attacks;
+			subset = (subset - mask) & mask;
+		}
+		return true;
+	}
+
+	/**
+	 * Search for a new set of magic numbers and print them out, in case the
+	 * masks ever change. The output is the two declarations above, ready to
+	 * paste over them
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(0x5EED);
+		for (boolean isRook : new boolean[]{true, false}) {
+			System.out.println("\tprivate static final long[] " + (isRook ? "ROOK_MAGICS" : "BISHOP_MAGICS") + " = new long[]{");
+			for (int square = 0; square < 64; square++) {
+				long mask = isRook ? rookMask(square) : bishopMask(square);
+				int shift = 64 - Long.bitCount(mask);
+				long[] scratch = new long[1 << (64 - shift)];
+				long magic;
+				do {
+					magic = random.nextLong() & random.nextLong() & random.nextLong();
+				} while (Long.bitCount((mask * magic) >>> 56) < 6 || !fillTable(square, isRook, magic, mask, shift, scratch, 0));
+				System.out.print(String.format((square & 3) == 0 ? "\t\t\t0x%016XL" : " 0x%016XL", magic));
+				System.out.print(square == 63 ? "\n" : (square & 3) == 3 ? ",\n" : ",");
+			}
+			System.out.println("\t};");
+		}
+	}
+
+	/**
+	 * The rook's attacks the long way round, only used to fill in the tables
+	 */
+	static long slowRookAttacks(int square, long occupied) {
+		return slide(square, occupied, 1, 0) | slide(square, occupied, -1, 0)
+				| slide(square, occupied, 0, 1) | slide(square, occupied, 0, -1);
+	}
+
+	/**
+	 * The bishop's attacks the long way round, only used to fill in the tables
+	 */
+	static long slowBishopAttacks(int square, long occupied) {
+		return slide(square, occupied, 1, 1) | slide(square, occupied, 1, -1)
+				| slide(square, occupied, -1, 1) | slide(square, occupied, -1, -1);
+	}
+
+	/**
+	 * Walk one ray from the square, stopping on the first occupied square
+	 */
+	static long slide(int square, long occupied, int dx, int dy) {
+		long attacks = 0;
+		int x = (square & 7) + dx;
+		int y = (square >> 3) + dy;
+		while (x >= 0 && x < 8 && y >= 0 && y < 8) {
+			long bit = 1L << ((y << 3) + x);
+			attacks |= bit;
+			if ((occupied & bit) != 0) {
+				break;
+			}
+			x += dx;
+			y += dy;
+		}
+		return attacks;
+	}
+}
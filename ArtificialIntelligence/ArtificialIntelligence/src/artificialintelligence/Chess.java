@@ -58,12 +58,35 @@ public class Chess extends GenericBoardGame {
 	public static final int QUEEN = 5;
 	public static final int KING = 6;
 	/**
-	 * All right, this one deserves some justification... A "Ghost pawn, is the
-	 * way we'll handle en passant" For the turn after (and just the turn after)
-	 * a pawn moves up two, we leave a ghost pawn, in it's square That way, the
-	 * board knows that square is valid for an en-passant capture
+	 * The board bytes only ever hold pieces, everything else we need to know
+	 * about a position lives in one extra long at the end of the state:
+	 * the castling rights in the bottom four bits, and the en passant square
+	 * (the square a pawn just skipped over, 0 if there isn't one, square 0
+	 * never can be) in the six bits above them
 	 */
-	public static final int GHOST_PAWN = 1 << 4;
+	public static final int FLAGS = 8;
+	/**
+	 * One castling right per corner rook, the computer's two first
+	 */
+	public static final int CASTLE_0 = 1;
+	public static final int CASTLE_7 = 2;
+	public static final int CASTLE_56 = 4;
+	public static final int CASTLE_63 = 8;
+	public static final int ALL_CASTLING = 15;
+	/**
+	 * The castling rights that survive a move touching each square, so that
+	 * make move is just rights &= CASTLING_MASKS[start] & CASTLING_MASKS[end]
+	 * (kings are handled separately since they can start on 3 or 4)
+	 */
+	public static final int[] CASTLING_MASKS = new int[64];
+
+	static {
+		Arrays.fill(CASTLING_MASKS, ALL_CASTLING);
+		CASTLING_MASKS[0] = ALL_CASTLING & ~CASTLE_0;
+		CASTLING_MASKS[7] = ALL_CASTLING & ~CASTLE_7;
+		CASTLING_MASKS[56] = ALL_CASTLING & ~CASTLE_56;
+		CASTLING_MASKS[63] = ALL_CASTLING & ~CASTLE_63;
+	}
 
 	/**
 	 * These values are values of flag bits
@@ -77,13 +100,6 @@ public class Chess extends GenericBoardGame {
 	 */
 	public static final int BLACK = 1;
 
-	/**
-	 * Is unmoved bit location
-	 */
-	public static final int UNMOVED_BIT_INDEX = 4;
-
-	public static final int UNMOVED = 1;
-	public static final int MOVED = 0;
 	/**
 	 * This array stores all the values for O(1) access
 	 */
@@ -117,30 +133,30 @@ public class Chess extends GenericBoardGame {
 	 * black
 	 */
 	public Chess(boolean aiIsBlack) {
-		state = new long[8];
+		state = new long[9];
 		for (int i = 0; i < 8; i++) {
 			Chess.setTileAtSpot(state, 8 + i, PAWN + (BLACK << 3));
 			Chess.setTileAtSpot(state, 48 + i, PAWN);
 		}
-		Chess.setTileAtSpot(state, 0, ROOK + (BLACK << 3) + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, 7, ROOK + (BLACK << 3) + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, 1, KNIGHT + (BLACK << 3) + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, 6, KNIGHT + (BLACK << 3) + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, 2, BISHOP + (BLACK << 3) + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, 5, BISHOP + (BLACK << 3) + (UNMOVED << 4));
-
-		Chess.setTileAtSpot(state, aiIsBlack ? 4 : 3, KING + (BLACK << 3) + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, aiIsBlack ? 3 : 4, QUEEN + (BLACK << 3) + (UNMOVED << 4));
-
-		Chess.setTileAtSpot(state, 56, ROOK + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, 63, ROOK + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, 57, KNIGHT + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, 62, KNIGHT + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, 58, BISHOP + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, 61, BISHOP + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, aiIsBlack ? 60 : 59, KING + (UNMOVED << 4));
-		Chess.setTileAtSpot(state, aiIsBlack ? 59 : 60, QUEEN + (UNMOVED << 4));
-
+		Chess.setTileAtSpot(state, 0, ROOK + (BLACK << 3));
+		Chess.setTileAtSpot(state, 7, ROOK + (BLACK << 3));
+		Chess.setTileAtSpot(state, 1, KNIGHT + (BLACK << 3));
+		Chess.setTileAtSpot(state, 6, KNIGHT + (BLACK << 3));
+		Chess.setTileAtSpot(state, 2, BISHOP + (BLACK << 3));
+		Chess.setTileAtSpot(state, 5, BISHOP + (BLACK << 3));
+
+		Chess.setTileAtSpot(state, aiIsBlack ? 4 : 3, KING + (BLACK << 3));
+		Chess.setTileAtSpot(state, aiIsBlack ? 3 : 4, QUEEN + (BLACK << 3));
+
+		Chess.setTileAtSpot(state, 56, ROOK);
+		Chess.setTileAtSpot(state, 63, ROOK);
+		Chess.setTileAtSpot(state, 57, KNIGHT);
+		Chess.setTileAtSpot(state, 62, KNIGHT);
+		Chess.setTileAtSpot(state, 58, BISHOP);
+		Chess.setTileAtSpot(state, 61, BISHOP);
+		Chess.setTileAtSpot(state, aiIsBlack ? 60 : 59, KING);
+		Chess.setTileAtSpot(state, aiIsBlack ? 59 : 60, QUEEN);
+		state[FLAGS] = ALL_CASTLING;
 	}
 
 	@Override
@@ -149,22 +165,133 @@ public class Chess extends GenericBoardGame {
 	}
 
 	public boolean isInCheck(boolean isAgainstComputerPlayer) {
-		int kingLoc = -1;
-		for (int i = 0; i < 64; i++) {
-			if (getTileAtSpot(i) == ((isAgainstComputerPlayer ? 1 : 0) << 3) + KING) {
-				kingLoc = i;
-				break;
+		int kingLoc = getKingSquare(isAgainstComputerPlayer);
+		return kingLoc >= 0 && isSquareAttacked(kingLoc, !isAgainstComputerPlayer);
+	}
+
+	/**
+	 * The directions a rook (first four) and a bishop (last four) slide in, as
+	 * {dx, dy} pairs
+	 */
+	private static final int[][] SLIDES = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+	/**
+	 * Whether any piece of the given side could capture on the square. Rather
+	 * than generating all of their moves, we work backwards from the square:
+	 * a knight attacks it iff it sits where a knight on the square could jump
+	 * to, and so on for pawns and kings, and the sliders are found by walking
+	 * out from the square until we hit something
+	 *
+	 * @param square the square in question
+	 * @param byComputer whose pieces we are worried about
+	 */
+	public boolean isSquareAttacked(int square, boolean byComputer) {
+		int side = byComputer ? BLACK << 3 : WHITE << 3;
+		if (isAnyOn(Bitboards.KNIGHT_ATTACKS[square], KNIGHT + side)
+				|| isAnyOn(Bitboards.KING_ATTACKS[square], KING + side)
+				|| isAnyOn(Bitboards.PAWN_ATTACKS[byComputer ? WHITE : BLACK][square], PAWN + side)) {
+			return true;
+		}
+		for (int d = 0; d < 8; d++) {
+			int x = (square & 7) + SLIDES[d][0];
+			int y = (square >> 3) + SLIDES[d][1];
+			while (x >= 0 && x < 8 && y >= 0 && y < 8) {
+				int tile = getTileAtSpot((y << 3) + x);
+				if (tile != EMPTY) {
+					if (tile == QUEEN + side || tile == (d < 4 ? ROOK : BISHOP) + side) {
+						return true;
+					}
+					break;
+				}
+				x += SLIDES[d][0];
+				y += SLIDES[d][1];
 			}
 		}
+		return false;
+	}
 
-		for (int a : this.getPossibleMoves(!isAgainstComputerPlayer, true, true)) {
-			if (a >> 6 == kingLoc) {
+	private boolean isAnyOn(long squares, int tile) {
+		for (; squares != 0; squares &= squares - 1) {
+			if (getTileAtSpot(Long.numberOfTrailingZeros(squares)) == tile) {
 				return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * Where each side's king is, so we only have to look for it once per
+	 * board. NOT_FOUND_YET until someone asks, -1 if that king is gone
+	 */
+	private static final int NOT_FOUND_YET = -2;
+	private int computerKing = NOT_FOUND_YET;
+	private int humanKing = NOT_FOUND_YET;
+
+	/**
+	 * Find the king of the given side
+	 *
+	 * @return the king's square, or -1 if it has been captured
+	 */
+	public int getKingSquare(boolean isComputerKing) {
+		int kingLoc = isComputerKing ? computerKing : humanKing;
+		if (kingLoc == NOT_FOUND_YET) {
+			kingLoc = -1;
+			for (long pieces = getPieceSquares(isComputerKing); pieces != 0; pieces &= pieces - 1) {
+				if ((getTileAtSpot(Long.numberOfTrailingZeros(pieces)) & 7) == KING) {
+					kingLoc = Long.numberOfTrailingZeros(pieces);
+					break;
+				}
+			}
+			if (isComputerKing) {
+				computerKing = kingLoc;
+			} else {
+				humanKing = kingLoc;
+			}
+		}
+		return kingLoc;
+	}
+
+	/**
+	 * Every square holding one of the given side's pieces, so nobody has to
+	 * walk over empty squares to find them. A row of the state is 8 bytes, so
+	 * we can test a whole row at once: adding 0x7F to each byte's piece bits
+	 * carries into the top bit iff there's a piece, and bit 3 is the color.
+	 * Multiplying by 0x0102040810204080 then slides the 8 top bits together
+	 */
+	public long getPieceSquares(boolean isComputer) {
+		if (!piecesKnown) {
+			computerPieces = 0;
+			humanPieces = 0;
+			for (int row = 0; row < 8; row++) {
+				long w = state[row];
+				long occupied = ((w & 0x0707070707070707L) + 0x7F7F7F7F7F7F7F7FL) & 0x8080808080808080L;
+				long computer = occupied & (w << 4);
+				computerPieces |= (((computer >>> 7) * 0x0102040810204080L) >>> 56) << (row << 3);
+				humanPieces |= ((((occupied ^ computer) >>> 7) * 0x0102040810204080L) >>> 56) << (row << 3);
+			}
+			piecesKnown = true;
+		}
+		return isComputer ? computerPieces : humanPieces;
+	}
+
+	private boolean piecesKnown;
+	private long computerPieces;
+	private long humanPieces;
+
+	/**
+	 * Hand the kings we already found down to the board after the move, so it
+	 * doesn't have to look for them again. Only the king that moved (and one
+	 * that got captured) can have changed
+	 *
+	 * @param child the board after the move
+	 * @param move the move that was made
+	 */
+	protected void passKingsTo(Chess child, int move) {
+		int start = move & 63;
+		int end = (move >> 6) & 63;
+		child.computerKing = computerKing == start ? end : computerKing == end ? -1 : computerKing;
+		child.humanKing = humanKing == start ? end : humanKing == end ? -1 : humanKing;
+	}
 
 	/**
 	 * Create a board with an initial state
@@ -184,6 +311,20 @@ public class Chess extends GenericBoardGame {
 
 	}
 
+	/**
+	 * Overwrite a single square of this board, the GUI uses this to swap a
+	 * freshly promoted queen for whatever the human actually picked
+	 *
+	 * @param spot the square to change
+	 * @param tile the new tile
+	 */
+	public void setTile(int spot, int tile) {
+		setTileAtSpot(state, spot, tile);
+		computerKing = NOT_FOUND_YET;
+		humanKing = NOT_FOUND_YET;
+		piecesKnown = false;
+	}
+
 	@Override
 	public int getTileAtSpot(int spot) {
 		return (int) ((((state[spot >> 3]) & ((long) 255 << ((spot & 7) << 3))) >> ((spot & 7) << 3)) & 15);
@@ -193,6 +334,171 @@ public class Chess extends GenericBoardGame {
 		return (int) ((((state[spot >> 3]) & ((long) 255 << ((spot & 7) << 3))) >> ((spot & 7) << 3)));
 	}
 
+	/**
+	 * Who can still castle, one bit per corner (see {@link #CASTLE_0} and
+	 * friends). A right is lost as soon as the king or that rook moves
+	 */
+	public int getCastlingRights() {
+		return (int) (state[FLAGS] & ALL_CASTLING);
+	}
+
+	/**
+	 * The square a pawn skipped over on the last move, if it moved two
+	 *
+	 * @return the square, or -1 if the last move wasn't a double pawn move
+	 */
+	public int getEnPassantSquare() {
+		int spot = (int) (state[FLAGS] >> 4) & 63;
+		return spot == 0 ? -1 : spot;
+	}
+
+	/**
+	 * Pack castling rights and an en passant square (-1 for none) for
+	 * state[FLAGS]
+	 */
+	public static long makeFlags(int castlingRights, int enPassantSquare) {
+		return castlingRights | (enPassantSquare > 0 ? enPassantSquare << 4 : 0);
+	}
+
+	/**
+	 * The en passant square, if the given side's pawns are the ones that could
+	 * take there
+	 */
+	protected int getEnPassantSquareFor(boolean isComputerMove) {
+		int spot = getEnPassantSquare();
+		//the computer's pawns take on row 5 (behind a human pawn), the human's on row 2
+		return spot >> 3 == (isComputerMove ? 5 : 2) ? spot : -1;
+	}
+
+	/**
+	 * Material from keeping the king and rooks at home, counted as 64 for each
+	 * castling right a side still has
+	 */
+	protected static int getCastlingRightsBonus(int castlingRights) {
+		return (Integer.bitCount(castlingRights & (CASTLE_0 | CASTLE_7)) - Integer.bitCount(castlingRights & (CASTLE_56 | CASTLE_63))) << 6;
+	}
+
+	//======FEN======
+	/*
+	 * FEN is how every other chess program writes down a position. We read it
+	 * with the computer as black, so row 0 is the eighth rank and column 0 is
+	 * the a file, which is exactly the board new Chess(true) sets up. The move
+	 * counters at the end are ignored, we don't keep them
+	 */
+	/**
+	 * The position new Chess(true) starts from, white (the human) to move
+	 */
+	public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+	private static final String FEN_PIECES = " pnbrqk";
+
+	/**
+	 * Read the board, castling rights and en passant square out of a FEN
+	 * string
+	 *
+	 * @return a state for any of the Chess constructors
+	 */
+	public static long[] parseFen(String fen) {
+		String[] fields = fen.trim().split("\\s+");
+		long[] out = new long[9];
+		int spot = 0;
+		for (char c : fields[0].toCharArray()) {
+			if (c == '/') {
+				continue;
+			}
+			if (Character.isDigit(c)) {
+				spot += c - '0';
+				continue;
+			}
+			int piece = FEN_PIECES.indexOf(Character.toLowerCase(c));
+			if (piece <= 0 || spot > 63) {
+				throw new IllegalArgumentException("Bad FEN board: " + fields[0]);
+			}
+			setTileAtSpot(out, spot++, piece + (Character.isLowerCase(c) ? BLACK << 3 : 0));
+		}
+		if (spot != 64) {
+			throw new IllegalArgumentException("Bad FEN board: " + fields[0]);
+		}
+		int rights = 0;
+		String castling = fields.length > 2 ? fields[2] : "-";
+		rights |= castling.indexOf('K') >= 0 ? CASTLE_63 : 0;
+		rights |= castling.indexOf('Q') >= 0 ? CASTLE_56 : 0;
+		rights |= castling.indexOf('k') >= 0 ? CASTLE_7 : 0;
+		rights |= castling.indexOf('q') >= 0 ? CASTLE_0 : 0;
+		int enPassant = fields.length > 3 && !fields[3].equals("-") ? getSquare(fields[3]) : -1;
+		out[FLAGS] = makeFlags(rights, enPassant);
+		return out;
+	}
+
+	/**
+	 * @return whether the FEN has black (the computer) to move
+	 */
+	public static boolean isComputerToMove(String fen) {
+		String[] fields = fen.trim().split("\\s+");
+		return fields.length > 1 && fields[1].equals("b");
+	}
+
+	/**
+	 * Write this position out as FEN, the other way round from
+	 * {@link #parseFen(String)}
+	 */
+	public String toFen(boolean isComputerToMove) {
+		StringBuilder out = new StringBuilder();
+		for (int row = 0; row < 8; row++) {
+			int empty = 0;
+			for (int col = 0; col < 8; col++) {
+				int tile = getTileAtSpot(row * 8 + col);
+				if (tile == EMPTY) {
+					empty++;
+					continue;
+				}
+				if (empty > 0) {
+					out.append(empty);
+					empty = 0;
+				}
+				char c = FEN_PIECES.charAt(tile & 7);
+				out.append((tile & 8) == 8 ? c : Character.toUpperCase(c));
+			}
+			if (empty > 0) {
+				out.append(empty);
+			}
+			if (row < 7) {
+				out.append('/');
+			}
+		}
+		out.append(isComputerToMove ? " b " : " w ");
+		int rights = getCastlingRights();
+		if (rights == 0) {
+			out.append('-');
+		}
+		out.append((rights & CASTLE_63) != 0 ? "K" : "").append((rights & CASTLE_56) != 0 ? "Q" : "");
+		out.append((rights & CASTLE_7) != 0 ? "k" : "").append((rights & CASTLE_0) != 0 ? "q" : "");
+		int enPassant = getEnPassantSquare();
+		out.append(' ').append(enPassant < 0 ? "-" : getSquareName(enPassant));
+		return out.append(" 0 1").toString();
+	}
+
+	/**
+	 * @return a square's name, like e4
+	 */
+	public static String getSquareName(int spot) {
+		return "" + (char) ('a' + (spot & 7)) + (8 - (spot >> 3));
+	}
+
+	/**
+	 * @param name a square's name, like e4
+	 * @return the square
+	 */
+	public static int getSquare(String name) {
+		return (name.charAt(0) - 'a') + ((8 - (name.charAt(1) - '0')) << 3);
+	}
+
+	/**
+	 * @return a move the way UCI writes it, like e2e4
+	 */
+	public static String getMoveName(int move) {
+		return getSquareName(move & 63) + getSquareName((move >> 6) & 63);
+	}
+
 	/**
 	 * If either side has lost a king the game is over
 	 *
@@ -225,21 +531,17 @@ public class Chess extends GenericBoardGame {
 //			}
 //		}
 
-		int value = 0;
-		int pieceCount = 64;
-		for (int i = 0; i < 64; i++) {
+		//encourage not moving the king or rook... heavily
+		int value = getCastlingRightsBonus(getCastlingRights());
+		//only look at the squares that actually have something on them
+		long occupied = getPieceSquares(true) | getPieceSquares(false);
+		int pieceCount = Long.bitCount(occupied);
+		for (; occupied != 0; occupied &= occupied - 1) {
+			int i = Long.numberOfTrailingZeros(occupied);
 			int piece = getTileAtSpotSpecial(i);
-//System.out.println(piece);
-			// Branchless == fast, a very quick (in theory) this is the fun way of saying subtract one iff empty 
-			pieceCount -= (((~(piece & 15)) & 15) / 15);
 //encourage owning material
 			value += (((((piece & 8) >> 2) - 1))) * (VALUES[piece & 7]);
 
-			if ((piece & 7) == KING || (piece & 7) == ROOK) {
-				//encourage not moving the king or rook... heavily
-				value += (((((piece & 8) >> 2) - 1)) * (piece & 16)) << 2;
-			}
-
 			if (((i >> 3) > 0 && (piece & 8) == 8) && ((piece & 7) == BISHOP || (piece & 7) == KNIGHT)) {
 				//lightly encourage piece developement
 				value += 50;
@@ -259,36 +561,17 @@ public class Chess extends GenericBoardGame {
 			}
 		}
 		if (pieceCount < 5) {
-			List<Integer> compMoves = getPossibleMoves(true, false, true);
-			List<Integer> compChecks = new ArrayList<>();
-			for (Integer c : compMoves) {
-				compChecks.add((c >> 6) & 63);
-			}
-			List<Integer> humanMoves = getPossibleMoves(false, false, true);
-			List<Integer> humanChecks = new ArrayList<>();
-			for (Integer c : humanMoves) {
-				compChecks.add((c >> 6) & 63);
-			}
-			for (Integer c : compMoves) {
-				compChecks.add((c >> 6) & 63);
-			}
-			int start = 0;
+			long compChecks = getTargets(false) | getTargets(true);
+			//(nothing ever goes in here, the human's moves end up in compChecks)
+			long humanChecks = 0;
+			int start = Math.max(getKingSquare(true), 0);
 			int compKingStartX, compKingStartY;
-			for (int i = 0; i < 64; i++) {
-				if ((getTileAtSpot(i) & 15) == (KING + (BLACK << 3))) {
-					start = i;
-					break;
-				}
-			}
 			compKingStartX = start % 8;
 			compKingStartY = start & 0b111000;
 			int compBoxSize = getFloodFillSize(start, humanChecks);
 			int humanKingStartX, humanKingStartY;
-			for (int i = 0; i < 64; i++) {
-				if ((getTileAtSpot(i) & 15) == (KING)) {
-					start = i;
-					break;
-				}
+			if (getKingSquare(false) >= 0) {
+				start = getKingSquare(false);
 			}
 			humanKingStartX = start % 8;
 			humanKingStartY = start & 0b111000;
@@ -321,74 +604,36 @@ public class Chess extends GenericBoardGame {
 	 * combination of the walls using a floodfill method
 	 */
 	public static int getFloodFillSize(int start, List<Integer> checks) {
-		int ret = 0;
-		checks.add(start);
-		List<Integer> frontier = new ArrayList<>();
-		frontier.add(start);
-		while (!frontier.isEmpty()) {
-			ArrayList<Integer> finalFrontier = new ArrayList<>();
-			for (Integer a : frontier) {
-
-				if (a - 8 > 0) {
-					if (!checks.contains(a - 8)) {
-						checks.add(a - 8);
-						finalFrontier.add(a - 8);
-						ret++;
-					}
-				}
-				if (a - 8 > 0 && (a & 7) > 0) {
-					if (!checks.contains(a - 9)) {
-						checks.add(a - 9);
-						finalFrontier.add(a - 9);
-						ret++;
-					}
-				}
-				if (a - 8 > 0 && (a & 7) < 7) {
-					if (!checks.contains(a - 7)) {
-						checks.add(a - 7);
-						finalFrontier.add(a - 7);
-						ret++;
-					}
-				}
-				if (a + 8 < 64 && (a & 7) < 7) {
-					if (!checks.contains(a + 9)) {
-						checks.add(a + 9);
-						finalFrontier.add(a + 9);
-						ret++;
-					}
-				}
-				if (a + 8 < 64 && (a & 7) > 0) {
-					if (!checks.contains(a + 7)) {
-						checks.add(a + 7);
-						finalFrontier.add(a + 7);
-						ret++;
-					}
-				}
-				if (a + 8 < 64) {
-					if (!checks.contains(a + 8)) {
-						checks.add(a + 8);
-						finalFrontier.add(a + 8);
-						ret++;
-					}
-				}
-				if ((a & 7) > 0) {
-					if (!checks.contains(a - 1)) {
-						checks.add(a - 1);
-						finalFrontier.add(a - 1);
-						ret++;
-					}
-				}
-				if ((a & 7) < 7) {
-					if (!checks.contains(a + 1)) {
-						checks.add(a + 1);
-						finalFrontier.add(a + 1);
-						ret++;
-					}
-				}
-			}
-			frontier = finalFrontier;
+		long walls = 0;
+		for (int a : checks) {
+			walls |= 1L << a;
 		}
-		return ret;
+		return getFloodFillSize(start, walls);
+	}
+
+	/**
+	 * The same flood fill, with the walls as a bitboard. Instead of walking
+	 * square by square we grow the whole region one king step at a time until
+	 * it stops growing. As before, a square can only be left upwards if it is
+	 * past square 8
+	 *
+	 * @param start where to start filling from
+	 * @param walls the squares that can't be entered
+	 * @return how many squares other than start can be reached
+	 */
+	public static int getFloodFillSize(int start, long walls) {
+		long region = 1L << start;
+		long frontier = region;
+		while (frontier != 0) {
+			long up = frontier & -(1L << 9);
+			long down = frontier & ~Bitboards.ROW_7;
+			long next = (up >>> 8) | ((up & ~Bitboards.FILE_A) >>> 9) | ((up & ~Bitboards.FILE_H) >>> 7)
+					| (down << 8) | ((down & ~Bitboards.FILE_H) << 9) | ((down & ~Bitboards.FILE_A) << 7)
+					| ((frontier & ~Bitboards.FILE_A) >>> 1) | ((frontier & ~Bitboards.FILE_H) << 1);
+			frontier = next & ~walls & ~region;
+			region |= frontier;
+		}
+		return Long.bitCount(region) - 1;
 	}
 
 	public static boolean doCloserAnalysis = false;
@@ -399,9 +644,18 @@ public class Chess extends GenericBoardGame {
 		return getPossibleMoves(isComputerMove, true, !doCloserAnalysis);
 	}
 
+	/**
+	 * All 64 bits of this get used as a transposition table key, so every row
+	 * (and the flags) has to make it in, not just an int's worth
+	 */
 	@Override
 	public long hash() {
-		return Arrays.hashCode(this.state);
+		long h = 0;
+		for (long row : state) {
+			h = (h ^ row) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+		}
+		return h;
 	}
 
 	public int hashCode(){
@@ -412,7 +666,7 @@ public class Chess extends GenericBoardGame {
 		Chess c = (Chess) o;
 		return c.state[0] == this.state[0] && c.state[1] == this.state[1] && c.state[2] == this.state[2]
 				&& c.state[3] == this.state[3] && c.state[4] == this.state[4] && c.state[5] == this.state[5] && c.state[6] == this.state[6]
-				&& c.state[7] == this.state[7];
+				&& c.state[7] == this.state[7] && c.state[FLAGS] == this.state[FLAGS];
 	}
 
 	/**
@@ -426,7 +680,10 @@ public class Chess extends GenericBoardGame {
 	 */
 	public ArrayList<Integer> getPossibleMoves(boolean isComputerMove, boolean considerKing, boolean shouldIgnoreChecks) {
 		ArrayList<Integer> toRet = new ArrayList<>();
-		for (int i = 0; i < 64; i++) {
+		int enPassant = getEnPassantSquareFor(isComputerMove);
+		int rights = getCastlingRights();
+		for (long pieces = getPieceSquares(isComputerMove); pieces != 0; pieces &= pieces - 1) {
+			int i = Long.numberOfTrailingZeros(pieces);
 			int piece = getTileAtSpot(i);
 			int side;
 			int b;
@@ -452,14 +709,13 @@ public class Chess extends GenericBoardGame {
 						if (getTileAtSpot(end) == 0) {
 							toRet.add((end << 6) + i);
 						}
-						int specialTarget;
 						if ((i & 7) > 0) {
 
 							int leftDiagonalCapture = getTileAtSpot(end - 1);
 							//when checking for control of squares (for castling check), pretend pawns can diagonal move
 							//Also, allow pawns to capture en passant, yes I do know it's ugly
 							if ((leftDiagonalCapture != 0 && (leftDiagonalCapture & 8) != (side)) || !considerKing
-									|| (((specialTarget = getTileAtSpotSpecial(end - 1)) & GHOST_PAWN) != 0 && ((side) != ((specialTarget & 32) >> 2)))) {
+									|| end - 1 == enPassant) {
 								toRet.add(((end - 1) << 6) + i);
 							}
 						}
@@ -467,7 +723,7 @@ public class Chess extends GenericBoardGame {
 							int leftDiagonalCapture = getTileAtSpot(end + 1);
 							//same justification
 							if ((leftDiagonalCapture != 0 && (leftDiagonalCapture & 8) != (side)) || !considerKing
-									|| (((specialTarget = getTileAtSpotSpecial(end + 1)) & GHOST_PAWN) != 0 && ((side) != ((specialTarget & 32) >> 2)))) {
+									|| end + 1 == enPassant) {
 								toRet.add(((end + 1) << 6) + i);
 							}
 						}
@@ -867,73 +1123,38 @@ public class Chess extends GenericBoardGame {
 						}
 
 						//Wait... You're not done yet! Castling
-						//if the king is unmoved
-						if ((getTileAtSpotSpecial(i) & 16) > 0) {
+						//if the king is unmoved (it still has a castling right)
+						if ((rights & (side == 8 ? CASTLE_0 | CASTLE_7 : CASTLE_56 | CASTLE_63)) != 0) {
 							//if it's the computer's king
-							boolean inCheck = false;
-							List<Integer> opponentAttacks = this.getPossibleMoves(!isComputerMove, false, true);
+							boolean byOpponent = !isComputerMove;
 							int spotOfKing = 60 - 7 * side;
-							for (int someInt : opponentAttacks) {
-								if ((someInt >> 6) == spotOfKing) {
-									inCheck = true;
-									break;
-								}
-							}
-							if (!inCheck) {
+							if (!isSquareAttacked(spotOfKing, byOpponent)) {
 
 								if (side == 8) {
 									//if the queenside rook is unmoved
-									if ((getTileAtSpotSpecial(0) & 16) > 0 && getTileAtSpot(1) == 0 && getTileAtSpot(2) == 0 && getTileAtSpot(3) == 0) {
-										inCheck = false;
+									if ((rights & CASTLE_0) != 0 && getTileAtSpot(1) == 0 && getTileAtSpot(2) == 0 && getTileAtSpot(3) == 0) {
 										//check castling queen
-										for (int someInt : opponentAttacks) {
-											if ((someInt >> 6) == 3) {
-												inCheck = true;
-												break;
-											}
-										}
-										if (!inCheck) {
+										if (!isSquareAttacked(3, byOpponent)) {
 											toRet.add((1 << 12) + (2 << 6) + i);
 										}
 									}
-									if ((getTileAtSpotSpecial(7) & 16) > 0 && getTileAtSpot(5) == 0 && getTileAtSpot(6) == 0) {
+									if ((rights & CASTLE_7) != 0 && getTileAtSpot(5) == 0 && getTileAtSpot(6) == 0) {
 										//check castling king
-										for (int someInt : opponentAttacks) {
-											inCheck = false;
-											if ((someInt >> 6) == 5) {
-												inCheck = true;
-												break;
-											}
-										}
-										if (!inCheck) {
+										if (!isSquareAttacked(5, byOpponent)) {
 											toRet.add((1 << 12) + (6 << 6) + i);
 										}
 									}
 								} else /*Human castling*/ {
-									if ((getTileAtSpotSpecial(56) & 16) > 0 && getTileAtSpot(57) == 0 && getTileAtSpot(58) == 0 && getTileAtSpot(59) == 0) {
-										inCheck = false;
+									if ((rights & CASTLE_56) != 0 && getTileAtSpot(57) == 0 && getTileAtSpot(58) == 0 && getTileAtSpot(59) == 0) {
 										//check castling queen
-										for (int someInt : opponentAttacks) {
-											if ((someInt >> 6) == 59) {
-												inCheck = true;
-												break;
-											}
-										}
-										if (!inCheck) {
+										if (!isSquareAttacked(59, byOpponent)) {
 
 											toRet.add((1 << 12) + (58 << 6) + i);
 										}
 									}
-									if ((getTileAtSpotSpecial(63) & 16) > 0 && getTileAtSpot(62) == 0 && getTileAtSpot(61) == 0) {
-										inCheck = false;
+									if ((rights & CASTLE_63) != 0 && getTileAtSpot(62) == 0 && getTileAtSpot(61) == 0) {
 										//check castling king
-										for (int someInt : opponentAttacks) {
-											if ((someInt >> 6) == 61) {
-												inCheck = true;
-												break;
-											}
-										}
-										if (!inCheck) {
+										if (!isSquareAttacked(61, byOpponent)) {
 											//System.out.println("Can king Side Castle");
 											toRet.add((1 << 12) + (62 << 6) + i);
 											//System.out.println(toRet.getLast());
@@ -962,6 +1183,249 @@ public class Chess extends GenericBoardGame {
 		}
 	}
 
+	/**
+	 * How many legal moves the side has, without keeping them anywhere
+	 */
+	public int countLegalMoves(boolean isComputerMove) {
+		return walkLegalMoves(isComputerMove, false);
+	}
+
+	/**
+	 * Whether the side can move at all, which is all the game over checks
+	 * need to know. Stops at the first piece with a legal move
+	 */
+	public boolean hasAnyLegalMove(boolean isComputerMove) {
+		return walkLegalMoves(isComputerMove, true) > 0;
+	}
+
+	/**
+	 * Counts the legal moves a piece at a time, straight off the board. Rather
+	 * than making every move and asking whether we're in check, we find the
+	 * checkers and the pinned pieces once: while in check a move has to land
+	 * on the checker or in between (and with two checkers only the king can
+	 * move), and a pinned piece has to stay on the line through it and its
+	 * king. King moves, castling and en passant move more than one thing, so
+	 * those are asked about one at a time
+	 *
+	 * @param stopAtFirst give up as soon as some piece has a legal move
+	 * @return the number of legal moves (or, with stopAtFirst, of the first
+	 * piece that has any)
+	 */
+	private int walkLegalMoves(boolean isComputerMove, boolean stopAtFirst) {
+		int side = isComputerMove ? BLACK << 3 : WHITE << 3;
+		long own = getPieceSquares(isComputerMove);
+		long enemy = getPieceSquares(!isComputerMove);
+		long occupied = own | enemy;
+		int king = getKingSquare(isComputerMove);
+		long checkMask = -1L;
+		long pinned = 0;
+		if (king >= 0) {
+			long checkers = attackersOf(king, occupied, enemy, !isComputerMove);
+			if (checkers != 0) {
+				checkMask = Long.bitCount(checkers) > 1 ? 0 : checkers | Bitboards.BETWEEN[king][Long.numberOfTrailingZeros(checkers)];
+			}
+			//looking through our own pieces, which of their sliders are lined up with the king
+			long snipers = onlyTypes(Bitboards.bishopAttacks(king, enemy) & enemy, BISHOP, QUEEN)
+					| onlyTypes(Bitboards.rookAttacks(king, enemy) & enemy, ROOK, QUEEN);
+			for (; snipers != 0; snipers &= snipers - 1) {
+				long between = Bitboards.BETWEEN[king][Long.numberOfTrailingZeros(snipers)] & occupied;
+				if (Long.bitCount(between) == 1) {
+					pinned |= between & own;
+				}
+			}
+		}
+		int enPassant = getEnPassantSquareFor(isComputerMove);
+		int count = 0;
+		for (long pieces = own; pieces != 0; pieces &= pieces - 1) {
+			int i = Long.numberOfTrailingZeros(pieces);
+			long targets = 0;
+			switch (getTileAtSpot(i) & 7) {
+				case PAWN:
+					int forward = isComputerMove ? i + 8 : i - 8;
+					targets = Bitboards.PAWN_ATTACKS[isComputerMove ? BLACK : WHITE][i] & enemy;
+					if (getTileAtSpot(forward) == EMPTY) {
+						targets |= 1L << forward;
+						int twoForward = isComputerMove ? i + 16 : i - 16;
+						if ((i >> 3) == (isComputerMove ? 1 : 6) && getTileAtSpot(twoForward) == EMPTY) {
+							targets |= 1L << twoForward;
+						}
+					}
+					if (enPassant >= 0 && (Bitboards.PAWN_ATTACKS[isComputerMove ? BLACK : WHITE][i] & (1L << enPassant)) != 0) {
+						//the captured pawn comes off too, which can uncover the king sideways
+						long captured = 1L << (isComputerMove ? enPassant - 8 : enPassant + 8);
+						if (king < 0 || attackersOf(king, (occupied ^ (1L << i) ^ captured) | (1L << enPassant), enemy & ~captured, !isComputerMove) == 0) {
+							count++;
+						}
+					}
+					break;
+				case KNIGHT:
+					targets = Bitboards.KNIGHT_ATTACKS[i] & ~own;
+					break;
+				case BISHOP:
+					targets = Bitboards.bishopAttacks(i, occupied) & ~own;
+					break;
+				case ROOK:
+					targets = Bitboards.rookAttacks(i, occupied) & ~own;
+					break;
+				case QUEEN:
+					targets = Bitboards.queenAttacks(i, occupied) & ~own;
+					break;
+				case KING:
+					//the king can't hide behind itself, so take it off the board before asking
+					for (long steps = Bitboards.KING_ATTACKS[i] & ~own; steps != 0; steps &= steps - 1) {
+						int end = Long.numberOfTrailingZeros(steps);
+						if (attackersOf(end, occupied ^ (1L << i), enemy & ~(1L << end), !isComputerMove) == 0) {
+							count++;
+						}
+					}
+					if (checkMask == -1L) {
+						count += countCastles(i, side, occupied, enemy, isComputerMove);
+					}
+			}
+			if (i != king) {
+				targets &= checkMask;
+				if ((pinned & (1L << i)) != 0) {
+					targets &= Bitboards.LINE[king][i];
+				}
+				count += Long.bitCount(targets);
+			}
+			if (stopAtFirst && count > 0) {
+				return count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Where the rook for each castling right (CASTLE_0 is bit 0 and so on)
+	 * starts
+	 */
+	private static final int[] CASTLING_ROOKS = {0, 7, 56, 63};
+
+	/**
+	 * The legal castles for a king on its home square that isn't in check: the
+	 * squares between it and the rook must be empty, it mustn't pass over an
+	 * attacked square, and it mustn't land on one once the rook has jumped
+	 * over
+	 */
+	private int countCastles(int king, int side, long occupied, long enemy, boolean isComputerMove) {
+		int rights = getCastlingRights() & (side == 8 ? CASTLE_0 | CASTLE_7 : CASTLE_56 | CASTLE_63);
+		int count = 0;
+		for (; rights != 0; rights &= rights - 1) {
+			int rook = CASTLING_ROOKS[Integer.numberOfTrailingZeros(rights)];
+			int step = rook < king ? -1 : 1;
+			if ((Bitboards.BETWEEN[king][rook] & occupied) != 0 || isSquareAttacked(king + step, !isComputerMove)) {
+				continue;
+			}
+			long after = occupied ^ (1L << king) ^ (1L << rook) | (1L << (king + step)) | (1L << (king + 2 * step));
+			if (attackersOf(king + 2 * step, after, enemy, !isComputerMove) == 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The pieces of the side that attack the square, only counting the
+	 * attackers given, and pretending the board is only occupied where
+	 * occupied says so (for asking what happens once something has moved)
+	 */
+	private long attackersOf(int square, long occupied, long attackers, boolean byComputer) {
+		return onlyTypes(Bitboards.KNIGHT_ATTACKS[square] & attackers, KNIGHT, KNIGHT)
+				| onlyTypes(Bitboards.KING_ATTACKS[square] & attackers, KING, KING)
+				| onlyTypes(Bitboards.PAWN_ATTACKS[byComputer ? WHITE : BLACK][square] & attackers, PAWN, PAWN)
+				| onlyTypes(Bitboards.bishopAttacks(square, occupied) & attackers, BISHOP, QUEEN)
+				| onlyTypes(Bitboards.rookAttacks(square, occupied) & attackers, ROOK, QUEEN);
+	}
+
+	/**
+	 * Which of the squares hold a piece of either type, whatever its color
+	 */
+	private long onlyTypes(long squares, int type, int otherType) {
+		long out = 0;
+		for (; squares != 0; squares &= squares - 1) {
+			int piece = getTileAtSpot(Long.numberOfTrailingZeros(squares)) & 7;
+			if (piece == type || piece == otherType) {
+				out |= squares & -squares;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Every square the side attacks, one bit per square: the pawns' diagonals,
+	 * wherever the knights and king could jump, and the sliders' lines up to
+	 * and including the first piece in the way (whoever's it is)
+	 */
+	public long attackedSquaresMask(boolean byComputer) {
+		long occupied = getPieceSquares(true) | getPieceSquares(false);
+		long out = 0;
+		for (long pieces = getPieceSquares(byComputer); pieces != 0; pieces &= pieces - 1) {
+			int i = Long.numberOfTrailingZeros(pieces);
+			switch (getTileAtSpot(i) & 7) {
+				case PAWN:
+					out |= Bitboards.PAWN_ATTACKS[byComputer ? BLACK : WHITE][i];
+					break;
+				case KNIGHT:
+					out |= Bitboards.KNIGHT_ATTACKS[i];
+					break;
+				case BISHOP:
+					out |= Bitboards.bishopAttacks(i, occupied);
+					break;
+				case ROOK:
+					out |= Bitboards.rookAttacks(i, occupied);
+					break;
+				case QUEEN:
+					out |= Bitboards.queenAttacks(i, occupied);
+					break;
+				case KING:
+					out |= Bitboards.KING_ATTACKS[i];
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Every square the given side "attacks" in the sense of
+	 * getPossibleMoves(side, false, true), which is what the endgame evaluation
+	 * cares about: pawn pushes count, both pawn diagonals count whatever is on
+	 * them, and the king is ignored. Same answer as collecting the end squares
+	 * of that list, without making the list
+	 */
+	public long getTargets(boolean isComputerMove) {
+		long own = getPieceSquares(isComputerMove);
+		long occupied = own | getPieceSquares(!isComputerMove);
+		long out = 0;
+		for (long pieces = own; pieces != 0; pieces &= pieces - 1) {
+			int i = Long.numberOfTrailingZeros(pieces);
+			switch (getTileAtSpot(i) & 7) {
+				case PAWN:
+					out |= Bitboards.PAWN_ATTACKS[isComputerMove ? BLACK : WHITE][i];
+					int end = isComputerMove ? i + 8 : i - 8;
+					if ((occupied & (1L << end)) == 0) {
+						out |= 1L << end;
+						int twoAway = isComputerMove ? i + 16 : i - 16;
+						if ((i >> 3) == (isComputerMove ? 1 : 6) && (occupied & (1L << twoAway)) == 0) {
+							out |= 1L << twoAway;
+						}
+					}
+					break;
+				case KNIGHT:
+					out |= Bitboards.KNIGHT_ATTACKS[i] & ~own;
+					break;
+				case BISHOP:
+					out |= Bitboards.bishopAttacks(i, occupied) & ~own;
+					break;
+				case ROOK:
+					out |= Bitboards.rookAttacks(i, occupied) & ~own;
+					break;
+				case QUEEN:
+					out |= Bitboards.queenAttacks(i, occupied) & ~own;
+			}
+		}
+		return out;
+	}
+
 	/**
 	 * The bottom 6 bits represent the initial spot, and the next 6 bits
 	 * represent the final spot
@@ -973,35 +1437,41 @@ public class Chess extends GenericBoardGame {
 	@Override
 	public Board makeMove(int move, boolean isComputerTurn) {
 		var newState = getNewState(move, isComputerTurn);
-		return new Chess(newState);
+		Chess child = new Chess(newState);
+		passKingsTo(child, move);
+		return child;
 	}
 
 	public long[] getNewState(int move, boolean isComputerTurn) {
 		int tile = getTileAtSpot(move & 63);
 		int start = move & 63;
 		int end = (move >> 6) & 63;
-		boolean cleanUpGhosts = true;
+		int rights = getCastlingRights() & CASTLING_MASKS[start] & CASTLING_MASKS[end];
+		int enPassant = -1;
 		//"performance"
 		long[] newState = {state[0], state[1], state[2], state[3],
-				state[4], state[5], state[6], state[7]};
+				state[4], state[5], state[6], state[7], 0};
+		if ((tile & 7) == KING) {
+			rights &= (tile & 8) == 8 ? CASTLE_56 | CASTLE_63 : CASTLE_0 | CASTLE_7;
+		}
 		if ((move & (1 << 12)) > 0) {
 
 			switch (end) {
 				case 2:
 					Chess.setTileAtSpot(newState, 0, 0);
-					Chess.setTileAtSpot(newState, 3, ROOK + 24);
+					Chess.setTileAtSpot(newState, 3, ROOK + 8);
 					break;
 				case 6:
 					Chess.setTileAtSpot(newState, 7, 0);
-					Chess.setTileAtSpot(newState, 5, ROOK + 24);
+					Chess.setTileAtSpot(newState, 5, ROOK + 8);
 					break;
 				case 58:
 					Chess.setTileAtSpot(newState, 56, 0);
-					Chess.setTileAtSpot(newState, 59, ROOK + 16);
+					Chess.setTileAtSpot(newState, 59, ROOK);
 					break;
 				case 62:
 					Chess.setTileAtSpot(newState, 63, 0);
-					Chess.setTileAtSpot(newState, 61, ROOK + 16);
+					Chess.setTileAtSpot(newState, 61, ROOK);
 			}
 		} else {
 
@@ -1010,22 +1480,13 @@ public class Chess extends GenericBoardGame {
 				if (((end >> 3) == 0 || ((end >> 3) == 7))) {
 					tile += (QUEEN - PAWN);
 				}
-				//double move pawn
-
-				//en passant hacks
-				if (end - start == 16) {
-					Chess.setTileAtSpot(newState, end - 8, (1 << 5) + (GHOST_PAWN));
-					cleanUpGhosts = false;
-				} else if (start - end == 16) {
-					Chess.setTileAtSpot(newState, end + 8, +(GHOST_PAWN));
-					cleanUpGhosts = false;
+				//double move pawn, remember the square it skipped
+				if (end - start == 16 || start - end == 16) {
+					enPassant = (start + end) >> 1;
 				}
-//ending en passant hacks
-				int specialTile;
-				if (((specialTile = getTileAtSpotSpecial(end)) & 31) == 16) {
-					int d = ((specialTile & 32) >> 4) - 1;
-//System.out.println(specialTile);
-					Chess.setTileAtSpot(newState, end + (d << 3), 0);
+				//en passant, the pawn we are taking is next to us, not where we land
+				if (end == getEnPassantSquare() && (end & 7) != (start & 7)) {
+					Chess.setTileAtSpot(newState, end + ((end >> 3) == 2 ? 8 : -8), 0);
 				}
 
 			}
@@ -1034,13 +1495,7 @@ public class Chess extends GenericBoardGame {
 
 		Chess.setTileAtSpot(newState, start, 0);
 		Chess.setTileAtSpot(newState, end, tile & 15);
-		for (int i = 0; i < 64; i++) {
-			if ((getTileAtSpotSpecial(i) & 31) == 16) {
-				if (end != i) {
-					Chess.setTileAtSpot(newState, i, 0);
-				}
-			}
-		}
+		newState[FLAGS] = makeFlags(rights, enPassant);
 		return newState;
 	}
 
@@ -0,0 +1,233 @@
+package artificialintelligence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Plays random games on the old {@link Chess} and on {@link BitboardChess}
+ * side by side and checks they agree about everything, every position: the
+ * moves (legal and pseudo legal, with their {@link Move} flags, and the
+ * legal move count Chess works out without making any), the state
+ * each move leads to, whether the side to move is in check, the attacked
+ * squares (half the games on the attack maps BitboardChess keeps up to
+ * date, counts and all), the evaluation, and that doMove/undoMove
+ * and the Zobrist key come back exactly. Chess is slow but it is the
+ * reference, so anything BitboardChess does differently is a bug until
+ * proven otherwise.
+ *
+ * Usage: DifferentialVerifier [games] [seed] [maxPly] [fen]
+ *
+ * Stops at the first difference and prints the FEN of the position it
+ * happened in (or the moves from the start, if the FEN alone doesn't show
+ * it) along with what differed.
+ *
+ * @author rohan
+ */
+public class DifferentialVerifier {
+
+	private final Random random;
+	private final int maxPly;
+	private final String startFen;
+	private final int[] buffer = new int[BitboardChess.MAX_MOVES];
+	private long positions;
+
+	public DifferentialVerifier(long seed, int maxPly, String startFen) {
+		this.random = new Random(seed);
+		this.maxPly = maxPly;
+		this.startFen = startFen;
+	}
+
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+		int maxPly = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+		String fen = Chess.START_FEN;
+		if (args.length > 3) {
+			fen = String.join(" ", Arrays.copyOfRange(args, 3, args.length));
+		}
+		System.out.println("Seed " + seed);
+
+		DifferentialVerifier verifier = new DifferentialVerifier(seed, maxPly, fen);
+		long start = System.nanoTime();
+		for (int game = 0; game < games; game++) {
+			String problem = verifier.playGame();
+			if (problem != null) {
+				System.out.println("Game " + game + " diverged");
+				System.out.println(problem);
+				System.exit(1);
+			}
+			if ((game + 1) % 1000 == 0) {
+				System.out.println((game + 1) + " games, " + verifier.positions + " positions");
+			}
+		}
+		System.out.println("No differences in " + games + " games (" + verifier.positions + " positions, "
+				+ (System.nanoTime() - start) / 1000000 + " ms)");
+	}
+
+	/**
+	 * Play one random game, checking every position along the way
+	 *
+	 * @return what went wrong, or null if nothing did
+	 */
+	public String playGame() {
+		boolean isComputerMove = Chess.isComputerToMove(startFen);
+		Chess legacy = new Chess(Chess.parseFen(startFen));
+		BitboardChess fast = new BitboardChess(Chess.parseFen(startFen));
+		fast.setComputerToMove(isComputerMove);
+		//half the games keep attack maps, so both ways of answering
+		//isSquareAttacked get checked
+		if (random.nextBoolean()) {
+			fast.enableAttackMaps();
+		}
+		List<Integer> line = new ArrayList<>();
+
+		for (int ply = 0; ply < maxPly && !legacy.isGameOver(); ply++) {
+			positions++;
+			String problem = compare(legacy, fast, isComputerMove);
+			if (problem != null) {
+				return describe(legacy, isComputerMove, line, problem);
+			}
+			List<Integer> moves = legacy.getPossibleMoves(isComputerMove, true, false);
+			if (moves.isEmpty()) {
+				break;
+			}
+			int move = moves.get(random.nextInt(moves.size()));
+			line.add(move);
+			legacy = (Chess) legacy.makeMove(move, isComputerMove);
+			fast = (BitboardChess) fast.makeMove(move, isComputerMove);
+			isComputerMove = !isComputerMove;
+		}
+		return null;
+	}
+
+	/**
+	 * Everything we check about one position
+	 *
+	 * @return what differed, or null
+	 */
+	private String compare(Chess legacy, BitboardChess fast, boolean isComputerMove) {
+		if (!Arrays.equals(legacy.state, fast.state)) {
+			return "states differ\n  legacy " + legacy.toFen(isComputerMove) + "\n  fast   " + fast.toFen(isComputerMove);
+		}
+		if (legacy.isInCheck(isComputerMove) != fast.isInCheck(isComputerMove)) {
+			return "isInCheck: legacy " + legacy.isInCheck(isComputerMove) + ", fast " + fast.isInCheck(isComputerMove);
+		}
+		if (legacy.attackedSquaresMask(true) != fast.attackedSquaresMask(true)
+				|| legacy.attackedSquaresMask(false) != fast.attackedSquaresMask(false)) {
+			return "attackedSquaresMask differs";
+		}
+		if (fast.hasAttackMaps()) {
+			//the counts kept up move by move against ones counted from scratch
+			BitboardChess fresh = new BitboardChess(fast.state.clone());
+			fresh.enableAttackMaps();
+			for (int square = 0; square < 64; square++) {
+				if (fresh.getAttackCount(square, true) != fast.getAttackCount(square, true)
+						|| fresh.getAttackCount(square, false) != fast.getAttackCount(square, false)) {
+					return "getAttackCount differs on " + square;
+				}
+			}
+		}
+		if (legacy.getValue() != fast.getValue()) {
+			return "getValue: legacy " + legacy.getValue() + ", fast " + fast.getValue();
+		}
+		String problem = compareMoves("pseudo legal moves", legacy.getPossibleMoves(isComputerMove, true, true),
+				fast.getPossibleMoves(isComputerMove, true, true));
+		if (problem != null) {
+			return problem;
+		}
+		List<Integer> moves = legacy.getPossibleMoves(isComputerMove, true, false);
+		int count = fast.generateMoves(buffer, 0, isComputerMove, BitboardChess.ALL_MOVES);
+		List<Integer> fastMoves = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			fastMoves.add(Move.toLegacy(buffer[i]));
+			if (getFlags(legacy, buffer[i]) != (buffer[i] & ~Move.LEGACY_BITS)) {
+				return "wrong flags on " + Chess.getMoveName(buffer[i]) + ": " + Integer.toHexString(buffer[i] >> 12);
+			}
+		}
+		problem = compareMoves("legal moves", moves, fastMoves);
+		if (problem != null) {
+			return problem;
+		}
+		if (legacy.countLegalMoves(isComputerMove) != moves.size() || legacy.hasAnyLegalMove(isComputerMove) == moves.isEmpty()) {
+			return "countLegalMoves: legacy " + legacy.countLegalMoves(isComputerMove) + ", list " + moves.size();
+		}
+
+		long[] before = fast.state.clone();
+		long key = fast.hash();
+		for (int move : moves) {
+			long[] expected = ((Chess) legacy.makeMove(move, isComputerMove)).state;
+			fast.doMove(move, isComputerMove);
+			if (!Arrays.equals(expected, fast.state)) {
+				String after = fast.toFen(!isComputerMove);
+				fast.undoMove();
+				return "after " + Chess.getMoveName(move) + "\n  legacy " + new Chess(expected).toFen(!isComputerMove)
+						+ "\n  fast   " + after;
+			}
+			BitboardChess fresh = new BitboardChess(fast.state.clone());
+			fresh.setComputerToMove(!isComputerMove);
+			if (fresh.hash() != fast.hash()) {
+				fast.undoMove();
+				return "Zobrist key after " + Chess.getMoveName(move) + " doesn't match a fresh board";
+			}
+			fast.undoMove();
+			if (!Arrays.equals(before, fast.state) || fast.hash() != key) {
+				return "undoMove of " + Chess.getMoveName(move) + " didn't restore the position";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The {@link Move} flags a move should have, worked out from the board
+	 */
+	private static int getFlags(Chess board, int move) {
+		int start = Move.getStart(move);
+		int end = Move.getEnd(move);
+		int flags = board.getTileAtSpot(end) != Chess.EMPTY ? Move.CAPTURE : 0;
+		if ((board.getTileAtSpot(start) & 7) == Chess.PAWN) {
+			if ((end >> 3) == 0 || (end >> 3) == 7) {
+				flags |= Move.PROMOTION;
+			} else if (end == board.getEnPassantSquare() && (end & 7) != (start & 7)) {
+				flags |= Move.CAPTURE | Move.EN_PASSANT;
+			}
+		}
+		return flags;
+	}
+
+	private static String compareMoves(String what, List<Integer> legacy, List<Integer> fast) {
+		List<Integer> missing = new ArrayList<>(legacy);
+		missing.removeAll(fast);
+		List<Integer> extra = new ArrayList<>(fast);
+		extra.removeAll(legacy);
+		if (missing.isEmpty() && extra.isEmpty() && legacy.size() == fast.size()) {
+			return null;
+		}
+		return what + " differ (legacy " + legacy.size() + ", fast " + fast.size() + ")\n  only legacy: "
+				+ getMoveNames(missing) + "\n  only fast:   " + getMoveNames(extra);
+	}
+
+	private static String getMoveNames(List<Integer> moves) {
+		StringBuilder out = new StringBuilder();
+		for (int move : moves) {
+			out.append(Chess.getMoveName(move)).append(' ');
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Boil a divergence down to the smallest thing that shows it: the FEN on
+	 * its own if setting that position up fresh is enough, otherwise the
+	 * moves that led there
+	 */
+	private String describe(Chess legacy, boolean isComputerMove, List<Integer> line, String problem) {
+		String fen = legacy.toFen(isComputerMove);
+		BitboardChess fresh = new BitboardChess(Chess.parseFen(fen));
+		fresh.setComputerToMove(isComputerMove);
+		if (compare(new Chess(Chess.parseFen(fen)), fresh, isComputerMove) != null) {
+			return "Reproduce with FEN: " + fen + "\n" + problem;
+		}
+		return "Only shows up after playing from " + startFen + ":\n  " + getMoveNames(line) + "\nReached FEN: " + fen + "\n" + problem;
+	}
+}
@@ -38,24 +38,6 @@ public class GeneticChess extends Chess {
         return 8;
     }
 
-    public boolean isInCheck(boolean isAgainstComputerPlayer) {
-        int kingLoc = -1;
-        for (int i = 0; i < 64; i++) {
-            if (getTileAtSpot(i) == ((isAgainstComputerPlayer ? 1 : 0) << 3) + KING) {
-                kingLoc = i;
-                break;
-            }
-        }
-
-        for (int a : this.getPossibleMoves(!isAgainstComputerPlayer, true, true)) {
-            if (a >> 6 == kingLoc) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-
     public static void setTileAtSpot(long[] inState, int spot, int tile) {
         inState[spot >> 3] = manipulateState(inState[spot >> 3], spot & 7, tile);
     }
@@ -208,70 +190,9 @@ public class GeneticChess extends Chess {
      */
     @Override
     public Board makeMove(int move, boolean isComputerTurn) {
-        int tile = getTileAtSpot(move & 63);
-        int start = move & 63;
-        int end = (move >> 6) & 63;
-        boolean cleanUpGhosts = true;
-        //"performance"
-        long[] newState = {state[0], state[1], state[2], state[3],
-                state[4], state[5], state[6], state[7]};
-        if ((move & (1 << 12)) > 0) {
-
-            switch (end) {
-                case 2:
-                    Chess.setTileAtSpot(newState, 0, 0);
-                    Chess.setTileAtSpot(newState, 3, ROOK + 24);
-                    break;
-                case 6:
-                    Chess.setTileAtSpot(newState, 7, 0);
-                    Chess.setTileAtSpot(newState, 5, ROOK + 24);
-                    break;
-                case 58:
-                    Chess.setTileAtSpot(newState, 56, 0);
-                    Chess.setTileAtSpot(newState, 59, ROOK + 16);
-                    break;
-                case 62:
-                    Chess.setTileAtSpot(newState, 63, 0);
-                    Chess.setTileAtSpot(newState, 61, ROOK + 16);
-            }
-        } else {
-
-            if ((tile & 7) == PAWN) {
-                //	Sketchy pawn promotion hack
-                if (((end >> 3) == 0 || ((end >> 3) == 7))) {
-                    tile += (QUEEN - PAWN);
-                }
-                //double move pawn
-
-                //en passant hacks
-                if (end - start == 16) {
-                    Chess.setTileAtSpot(newState, end - 8, (1 << 5) + (GHOST_PAWN));
-                    cleanUpGhosts = false;
-                } else if (start - end == 16) {
-                    Chess.setTileAtSpot(newState, end + 8, +(GHOST_PAWN));
-                    cleanUpGhosts = false;
-                }
-//ending en passant hacks
-                int specialTile;
-                if (((specialTile = getTileAtSpotSpecial(end)) & 31) == 16) {
-                    int d = ((specialTile & 32) >> 4) - 1;
-//System.out.println(specialTile);
-                    Chess.setTileAtSpot(newState, end + (d << 3), 0);
-                }
-
-            }
-
-        }
-
-        Chess.setTileAtSpot(newState, start, 0);
-        Chess.setTileAtSpot(newState, end, tile & 15);
-        for (int i = 0; i < 64; i++) {
-            if ((getTileAtSpotSpecial(i) & 31) == 16) {
-                if (end != i) {
-                    Chess.setTileAtSpot(newState, i, 0);
-                }
-            }
-        }
-        return new GeneticChess(newState);
+        long[] newState = getNewState(move, isComputerTurn);
+        GeneticChess child = new GeneticChess(newState);
+        passKingsTo(child, move);
+        return child;
     }
 }
\ No newline at end of file
@@ -106,6 +106,7 @@ public class MemoizedChess extends Chess {
         MemoizedChess out = new MemoizedChess(state);
 
         out.internalMemoizedValue = newInternalValue;
+        passKingsTo(out, move);
 
         return out;
     }
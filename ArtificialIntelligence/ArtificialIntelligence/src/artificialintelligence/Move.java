@@ -0,0 +1,85 @@
+package artificialintelligence;
+
+/**
+ * Chess moves are plain ints so they never get boxed on the way through the
+ * search. The bottom 12 bits are the same as they always were (start square,
+ * then end square), bit 12 is still castling, and the three bits above that
+ * say what else the move does, so nobody has to look at the board to find
+ * out whether a move is a capture. The whole thing fits in 16 bits.
+ *
+ * {@link BitboardChess} hands out moves with every flag filled in. Anything
+ * that only knows the old encoding (Chess, the GUI) can ignore the extra bits,
+ * or strip them with {@link #toLegacy(int)}.
+ *
+ * @author rohan
+ */
+public final class Move {
+
+	/**
+	 * The king moves two squares and the rook jumps over it
+	 */
+	public static final int CASTLE = 1 << 12;
+	/**
+	 * Something gets taken, en passant included
+	 */
+	public static final int CAPTURE = 1 << 13;
+	/**
+	 * A pawn takes the pawn that just went past it
+	 */
+	public static final int EN_PASSANT = 1 << 14;
+	/**
+	 * A pawn reaches the last row. We only ever make queens, so there is no
+	 * need to say what it promotes to
+	 */
+	public static final int PROMOTION = 1 << 15;
+
+	/**
+	 * The bits {@link Chess} has always used
+	 */
+	public static final int LEGACY_BITS = CASTLE | 4095;
+
+	private Move() {
+	}
+
+	public static int make(int start, int end, int flags) {
+		return start | end << 6 | flags;
+	}
+
+	public static int getStart(int move) {
+		return move & 63;
+	}
+
+	public static int getEnd(int move) {
+		return (move >> 6) & 63;
+	}
+
+	public static boolean isCapture(int move) {
+		return (move & CAPTURE) != 0;
+	}
+
+	public static boolean isPromotion(int move) {
+		return (move & PROMOTION) != 0;
+	}
+
+	public static boolean isCastle(int move) {
+		return (move & CASTLE) != 0;
+	}
+
+	public static boolean isEnPassant(int move) {
+		return (move & EN_PASSANT) != 0;
+	}
+
+	/**
+	 * Whether the move leaves the material alone: no capture, no promotion
+	 */
+	public static boolean isQuiet(int move) {
+		return (move & (CAPTURE | PROMOTION)) == 0;
+	}
+
+	/**
+	 * The move the way {@link Chess#getPossibleMoves(boolean)} writes it
+	 */
+	public static int toLegacy(int move) {
+		return move & LEGACY_BITS;
+	}
+}
@@ -0,0 +1,216 @@
+package artificialintelligence;
+
+/**
+ * Hands out the moves of a chess position one at a time, the ones most likely
+ * to cause a cutoff first, and only generates what it has to. The hash move
+ * and the killer moves are checked on their own, the captures are generated
+ * next (best victim, cheapest attacker first), and the quiet moves (most of
+ * the list) only once everything before them has failed to end the search
+ * at this node, ordered by the history table if there is one.
+ *
+ * @author rohan
+ */
+public class MovePicker {
+
+	/**
+	 * Never a real move (it would go from square 0 to square 0), so it doubles
+	 * as "no hash move" and "out of moves"
+	 */
+	public static final int NO_MOVE = 0;
+
+	//======Stages======
+	private static final int HASH_MOVE = 0;
+	private static final int GENERATE_CAPTURES = 1;
+	private static final int CAPTURES = 2;
+	private static final int FIRST_KILLER = 3;
+	private static final int SECOND_KILLER = 4;
+	private static final int GENERATE_QUIETS = 5;
+	private static final int QUIETS = 6;
+	private static final int DONE = 7;
+
+	private final int[] moves = new int[BitboardChess.MAX_MOVES];
+	/**
+	 * How good each move in moves looks, the best is handed out first
+	 */
+	private final int[] scores = new int[BitboardChess.MAX_MOVES];
+	private int count;
+	private int index;
+	private int stage;
+	/**
+	 * Quiescence search stops after the one list of captures (or evasions)
+	 */
+	private boolean quiescence;
+
+	private BitboardChess board;
+	private boolean isComputerMove;
+	private int hashMove;
+	private int killer1;
+	private int killer2;
+	/**
+	 * The side to move's history scores, by start and end square, or null to
+	 * hand the quiet moves out in whatever order they were generated
+	 */
+	private int[][] history;
+
+	/**
+	 * Get ready to pick moves for a new node
+	 *
+	 * @param hashMove the best move last time we were here, or NO_MOVE
+	 * @param killer1 a quiet move that caused a cutoff at this depth in a
+	 * sibling node, or NO_MOVE
+	 * @param killer2 the killer before that, or NO_MOVE
+	 */
+	public void init(BitboardChess board, boolean isComputerMove, int hashMove, int killer1, int killer2) {
+		init(board, isComputerMove, hashMove, killer1, killer2, null);
+	}
+
+	/**
+	 * The same, with the quiet moves ordered by how often they have caused
+	 * cutoffs anywhere in the search so far
+	 *
+	 * @param history [start square][end square], bigger is better
+	 */
+	public void init(BitboardChess board, boolean isComputerMove, int hashMove, int killer1, int killer2, int[][] history) {
+		this.board = board;
+		this.isComputerMove = isComputerMove;
+		this.hashMove = hashMove;
+		this.killer1 = killer1;
+		this.killer2 = killer2;
+		this.history = history;
+		quiescence = false;
+		stage = HASH_MOVE;
+	}
+
+	/**
+	 * Get ready to pick moves for quiescence search: only the captures, unless
+	 * we are in check, then every way out of it
+	 */
+	public void initQuiescence(BitboardChess board, boolean isComputerMove) {
+		init(board, isComputerMove, NO_MOVE, NO_MOVE, NO_MOVE);
+		quiescence = true;
+		index = 0;
+		if (board.isInCheck(isComputerMove)) {
+			count = board.generateEvasions(moves, 0, isComputerMove);
+		} else {
+			count = board.generateCaptures(moves, 0, isComputerMove);
+		}
+		scoreCaptures();
+		stage = CAPTURES;
+	}
+
+	/**
+	 * @return the next legal move to try, or NO_MOVE once there are none left
+	 */
+	public int next() {
+		while (true) {
+			switch (stage) {
+				case HASH_MOVE:
+					stage = GENERATE_CAPTURES;
+					if (hashMove != NO_MOVE && board.isLegalMove(hashMove, isComputerMove)) {
+						return hashMove;
+					}
+					hashMove = NO_MOVE;
+					break;
+				case GENERATE_CAPTURES:
+					count = board.generateCaptures(moves, 0, isComputerMove);
+					index = 0;
+					scoreCaptures();
+					stage = CAPTURES;
+					break;
+				case CAPTURES:
+					while (index < count) {
+						int move = pickBest();
+						if (move != hashMove) {
+							return move;
+						}
+					}
+					stage = quiescence ? DONE : FIRST_KILLER;
+					break;
+				case FIRST_KILLER:
+					stage = SECOND_KILLER;
+					if (isUsableKiller(killer1)) {
+						return killer1;
+					}
+					killer1 = NO_MOVE;
+					break;
+				case SECOND_KILLER:
+					stage = GENERATE_QUIETS;
+					if (killer2 != killer1 && isUsableKiller(killer2)) {
+						return killer2;
+					}
+					killer2 = NO_MOVE;
+					break;
+				case GENERATE_QUIETS:
+					count = board.generateMoves(moves, 0, isComputerMove, BitboardChess.QUIETS);
+					index = 0;
+					if (history != null) {
+						scoreQuiets();
+					}
+					stage = QUIETS;
+					break;
+				case QUIETS:
+					while (index < count) {
+						int move = history != null ? pickBest() : moves[index++];
+						if (move != hashMove && move != killer1 && move != killer2) {
+							return move;
+						}
+					}
+					stage = DONE;
+					break;
+				default:
+					return NO_MOVE;
+			}
+		}
+	}
+
+	/**
+	 * Most valuable victim, least valuable attacker: taking a queen with a
+	 * pawn first, taking a pawn with a queen last. The flags say what kind of
+	 * move it is, the board only has to say who is standing where
+	 */
+	private void scoreCaptures() {
+		for (int i = 0; i < count; i++) {
+			int move = moves[i];
+			int victim = Move.isEnPassant(move) ? Chess.PAWN : board.getTileAtSpot(Move.getEnd(move)) & 7;
+			int attacker = board.getTileAtSpot(Move.getStart(move)) & 7;
+			scores[i] = (Chess.VALUES[victim] << 3) - attacker + (Move.isPromotion(move) ? Chess.QUEEN_VALUE << 3 : 0);
+		}
+	}
+
+	/**
+	 * Quiet moves have no victim to go by, so they go by their history
+	 */
+	private void scoreQuiets() {
+		for (int i = 0; i < count; i++) {
+			scores[i] = history[Move.getStart(moves[i])][Move.getEnd(moves[i])];
+		}
+	}
+
+	/**
+	 * Swap the best scoring move left in the list to the front and return it.
+	 * Most nodes cut off after a move or two, so picking one at a time beats
+	 * sorting the whole list
+	 */
+	private int pickBest() {
+		int best = index;
+		for (int i = index + 1; i < count; i++) {
+			if (scores[i] > scores[best]) {
+				best = i;
+			}
+		}
+		int move = moves[best];
+		moves[best] = moves[index];
+		scores[best] = scores[index];
+		moves[index] = move;
+		index++;
+		return move;
+	}
+
+	/**
+	 * Killers come from other positions, so they have to be legal here, quiet
+	 * (the captures have all been tried) and not the hash move
+	 */
+	private boolean isUsableKiller(int killer) {
+		return killer != NO_MOVE && killer != hashMove && Move.isQuiet(killer) && board.isLegalMove(killer, isComputerMove);
+	}
+}
@@ -0,0 +1,269 @@
+package artificialintelligence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts every position reachable in exactly n moves (perft), which is the
+ * standard way to check a move generator: the numbers for well known
+ * positions are published, so if ours differ something is wrong, and if we
+ * get them faster the generator got faster.
+ *
+ * Usage: Perft [-divide] [-threads n] [-hash mb] [-legacy] depth [fen]
+ *
+ * -divide prints the count under each first move, so a wrong total can be
+ * chased down one move at a time. -threads splits the first moves over a
+ * fork join pool. -hash caches subtree counts by Zobrist key. -legacy runs the
+ * old Chess getPossibleMoves/makeMove instead of BitboardChess, for
+ * comparing the two (no hash table there, Chess has no key).
+ *
+ * We only ever promote to a queen, so positions where pawns promote within
+ * the depth will count fewer nodes than the published numbers.
+ *
+ * @author rohan
+ */
+public class Perft {
+
+	private final int depth;
+	private final boolean divide;
+	private final int threads;
+	private final boolean legacy;
+	private final PerftCache cache;
+
+	public Perft(int depth, boolean divide, int threads, int hashMegabytes, boolean legacy) {
+		this.depth = depth;
+		this.divide = divide;
+		this.threads = threads;
+		this.legacy = legacy;
+		this.cache = hashMegabytes > 0 && !legacy ? new PerftCache(hashMegabytes) : null;
+	}
+
+	public static void main(String[] args) {
+		boolean divide = false;
+		boolean legacy = false;
+		int threads = 1;
+		int hash = 0;
+		int depth = -1;
+		StringBuilder fen = new StringBuilder();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "-divide":
+					divide = true;
+					break;
+				case "-legacy":
+					legacy = true;
+					break;
+				case "-threads":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "-hash":
+					hash = Integer.parseInt(args[++i]);
+					break;
+				default:
+					if (depth < 0) {
+						depth = Integer.parseInt(args[i]);
+					} else {
+						fen.append(args[i]).append(' ');
+					}
+			}
+		}
+		if (depth < 0) {
+			System.out.println("Usage: Perft [-divide] [-threads n] [-hash mb] [-legacy] depth [fen]");
+			return;
+		}
+		String position = fen.length() == 0 ? Chess.START_FEN : fen.toString();
+		Perft perft = new Perft(depth, divide, threads, hash, legacy);
+
+		long start = System.nanoTime();
+		long nodes = perft.run(position);
+		long nanos = Math.max(System.nanoTime() - start, 1);
+		System.out.println();
+		System.out.println("Nodes: " + nodes);
+		System.out.println("Time: " + nanos / 1000000 + " ms");
+		System.out.println("NPS: " + (long) (nodes * 1e9 / nanos));
+	}
+
+	/**
+	 * Count the leaves depth moves below the position, printing the divide if
+	 * asked for
+	 */
+	public long run(String fen) {
+		boolean isComputerMove = Chess.isComputerToMove(fen);
+		long[] state = Chess.parseFen(fen);
+		Chess board = legacy ? new Chess(state) : new BitboardChess(state);
+		if (!legacy) {
+			((BitboardChess) board).setComputerToMove(isComputerMove);
+		}
+		if (depth == 0) {
+			return 1;
+		}
+
+		List<Integer> moves = board.getPossibleMoves(isComputerMove, true, false);
+		List<RootMove> tasks = new ArrayList<>();
+		for (int move : moves) {
+			tasks.add(new RootMove(this, board, move, isComputerMove));
+		}
+		if (threads > 1) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				for (RootMove task : tasks) {
+					pool.execute(task);
+				}
+				for (RootMove task : tasks) {
+					task.join();
+				}
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			for (RootMove task : tasks) {
+				task.invoke();
+			}
+		}
+
+		long total = 0;
+		for (RootMove task : tasks) {
+			long count = task.join();
+			if (divide) {
+				System.out.println(Chess.getMoveName(task.move) + ": " + count);
+			}
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Everything under one first move, these are what gets split over threads
+	 */
+	private static class RootMove extends RecursiveTask<Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient Perft perft;
+		private final transient Chess parent;
+		private final int move;
+		private final boolean isComputerMove;
+
+		RootMove(Perft perft, Chess parent, int move, boolean isComputerMove) {
+			this.perft = perft;
+			this.parent = parent;
+			this.move = move;
+			this.isComputerMove = isComputerMove;
+		}
+
+		@Override
+		protected Long compute() {
+			int depth = perft.depth;
+			if (perft.legacy) {
+				return countLegacy((Chess) parent.makeMove(move, isComputerMove), depth - 1, !isComputerMove);
+			}
+			//every task gets its own board to do and undo moves on
+			BitboardChess board = new BitboardChess((BitboardChess) parent);
+			board.doMove(move, isComputerMove);
+			return perft.count(board, depth - 1, !isComputerMove, new int[depth][BitboardChess.MAX_MOVES]);
+		}
+	}
+
+	/**
+	 * Perft on one board, making and unmaking moves in place
+	 *
+	 * @param moves one move list per ply, so nothing is allocated on the way
+	 * down
+	 */
+	private long count(BitboardChess board, int depth, boolean isComputerMove, int[][] moves) {
+		if (depth == 0) {
+			return 1;
+		}
+		long hashKey = 0;
+		if (cache != null && depth > 1) {
+			hashKey = board.hash() ^ PerftCache.DEPTH_KEYS[depth];
+			long cached = cache.get(hashKey);
+			if (cached >= 0) {
+				return cached;
+			}
+		}
+		int[] buffer = moves[depth];
+		int count = board.generateMoves(buffer, 0, isComputerMove, BitboardChess.ALL_MOVES);
+		if (depth == 1) {
+			//bulk counting: the number of legal moves is the number of leaves
+			return count;
+		}
+		long total = 0;
+		for (int i = 0; i < count; i++) {
+			board.doMove(buffer[i], isComputerMove);
+			total += count(board, depth - 1, !isComputerMove, moves);
+			board.undoMove();
+		}
+		if (cache != null) {
+			cache.put(hashKey, total);
+		}
+		return total;
+	}
+
+	/**
+	 * Perft the old way, a new board for every move
+	 */
+	private static long countLegacy(Chess board, int depth, boolean isComputerMove) {
+		if (depth == 0) {
+			return 1;
+		}
+		List<Integer> moves = board.getPossibleMoves(isComputerMove, true, false);
+		if (depth == 1) {
+			return moves.size();
+		}
+		long total = 0;
+		for (int move : moves) {
+			total += countLegacy((Chess) board.makeMove(move, isComputerMove), depth - 1, !isComputerMove);
+		}
+		return total;
+	}
+
+	/**
+	 * Subtree counts by key, shared between threads without locking. Each slot
+	 * keeps the count and the key xor the count, a slot torn by two threads
+	 * writing at once won't check out and is treated as a miss
+	 */
+	private static class PerftCache {
+
+		/**
+		 * Xor'd into the key so the same position at different depths gets
+		 * different slots
+		 */
+		static final long[] DEPTH_KEYS = new long[BitboardChess.MAX_PLY];
+
+		static {
+			java.util.Random random = new java.util.Random(0xDE97);
+			for (int i = 0; i < DEPTH_KEYS.length; i++) {
+				DEPTH_KEYS[i] = random.nextLong();
+			}
+		}
+
+		private final long[] checks;
+		private final long[] counts;
+		private final int mask;
+
+		PerftCache(int megabytes) {
+			int size = (int) Long.highestOneBit(Math.min((long) Math.max(megabytes, 1) << 20 >> 4, 1 << 30));
+			checks = new long[size];
+			counts = new long[size];
+			mask = size - 1;
+		}
+
+		/**
+		 * @return the count, or -1 if we don't have it
+		 */
+		long get(long hashKey) {
+			int slot = (int) hashKey & mask;
+			long count = counts[slot];
+			return (checks[slot] ^ count) == hashKey && count != 0 ? count : -1;
+		}
+
+		void put(long hashKey, long count) {
+			int slot = (int) hashKey & mask;
+			counts[slot] = count;
+			checks[slot] = hashKey ^ count;
+		}
+	}
+}
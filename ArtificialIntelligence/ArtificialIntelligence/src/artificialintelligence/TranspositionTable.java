@@ -0,0 +1,163 @@
+package artificialintelligence;
+
+import java.util.Arrays;
+
+/**
+ * Remembers what the search found out about positions it has already been
+ * to, in a fixed amount of memory. Nothing here is an object: each entry is
+ * a 64 bit key in one array and everything else packed into a long in a
+ * second one, so an entry costs 16 bytes instead of a HashMap node, a board
+ * and two boxed Integers.
+ *
+ * Entries live in buckets of four. A position can only go in its own bucket,
+ * and when that is full the entry to throw out is the one least worth
+ * keeping: anything left over from an earlier search goes first, then the
+ * shallowest.
+ *
+ * Packing of the data long, from the top: the score (32 bits), the best move
+ * (16), the depth (8), the bound (2) and the generation (6).
+ *
+ * @author rohan
+ */
+public class TranspositionTable {
+
+	/**
+	 * What the stored score means. 0 is kept for empty slots
+	 */
+	public static final int EXACT = 1;
+	public static final int LOWER_BOUND = 2;
+	public static final int UPPER_BOUND = 3;
+
+	private static final int BUCKET_SIZE = 4;
+	private static final int GENERATIONS = 64;
+
+	private final long[] keys;
+	private final long[] data;
+	/**
+	 * Which bit of the (scrambled) key picks the bucket
+	 */
+	private final int shift;
+	private int generation;
+
+	/**
+	 * @param megabytes roughly how much memory to use, rounded down to a power
+	 * of two number of buckets
+	 */
+	public TranspositionTable(int megabytes) {
+		long entries = Math.max((long) megabytes << 20, 1 << 10) / 16;
+		int buckets = (int) Long.highestOneBit(Math.min(entries / BUCKET_SIZE, 1 << 26));
+		keys = new long[buckets * BUCKET_SIZE];
+		data = new long[buckets * BUCKET_SIZE];
+		shift = 64 - Integer.numberOfTrailingZeros(buckets);
+	}
+
+	/**
+	 * Forget everything
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(data, 0);
+	}
+
+	/**
+	 * Call at the start of every search, so that whatever the last one left
+	 * behind is the first to be thrown out
+	 */
+	public void newSearch() {
+		generation = (generation + 1) % GENERATIONS;
+	}
+
+	/**
+	 * Multiplying by an odd constant and keeping the top bits spreads out keys
+	 * that only differ in a few bits (Othello's and TicTacToe's keys are the
+	 * board itself)
+	 */
+	private int getBucket(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift) * BUCKET_SIZE;
+	}
+
+	/**
+	 * Look a position up
+	 *
+	 * @return the slot it is in (for {@link #getScore(int)} and friends), or
+	 * -1 if we don't know it
+	 */
+	public int probe(long key) {
+		int bucket = getBucket(key);
+		for (int slot = bucket; slot < bucket + BUCKET_SIZE; slot++) {
+			if (keys[slot] == key && data[slot] != 0) {
+				//still useful, so don't let the next search throw it out
+				data[slot] = (data[slot] & ~(long) (GENERATIONS - 1)) | generation;
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	public int getScore(int slot) {
+		return (int) (data[slot] >> 32);
+	}
+
+	public int getMove(int slot) {
+		return (int) (data[slot] >>> 16) & 0xFFFF;
+	}
+
+	public int getDepth(int slot) {
+		return (int) (data[slot] >>> 8) & 0xFF;
+	}
+
+	public int getBound(int slot) {
+		return (int) (data[slot] >>> 6) & 3;
+	}
+
+	/**
+	 * Remember a position. A position we already have is only overwritten by
+	 * a search at least as deep (or if the old one is from an earlier search),
+	 * otherwise the least useful entry in the bucket makes room
+	 *
+	 * @param move the best move, or 0 if there isn't one (an entry for the same
+	 * position keeps its old move then)
+	 * @param bound {@link #EXACT} if score is the real value, {@link #LOWER_BOUND}
+	 * if the search stopped early on a move at least that good, and
+	 * {@link #UPPER_BOUND} if no move got above it
+	 */
+	public void store(long key, int score, int move, int depth, int bound) {
+		int bucket = getBucket(key);
+		int replace = bucket;
+		int worst = Integer.MAX_VALUE;
+		for (int slot = bucket; slot < bucket + BUCKET_SIZE; slot++) {
+			long entry = data[slot];
+			if (entry == 0) {
+				//an empty slot beats anything, unless the position turns up
+				//further along
+				if (worst != Integer.MIN_VALUE) {
+					replace = slot;
+					worst = Integer.MIN_VALUE;
+				}
+				continue;
+			}
+			boolean isOld = (entry & (GENERATIONS - 1)) != generation;
+			if (keys[slot] == key) {
+				if (!isOld && depth < getDepth(slot)) {
+					return;
+				}
+				//a fail low doesn't know a best move, the last one we had is
+				//still the best guess for ordering
+				if (move == 0) {
+					move = getMove(slot);
+				}
+				replace = slot;
+				break;
+			}
+			//older searches first, then the shallowest
+			int value = getDepth(slot) - (isOld ? 256 : 0);
+			if (value < worst) {
+				replace = slot;
+				worst = value;
+			}
+		}
+		keys[replace] = key;
+		data[replace] = ((long) score << 32) | (long) (move & 0xFFFF) << 16 | (long) (Math.min(Math.max(depth, 0), 255)) << 8
+				| (long) bound << 6 | generation;
+	}
+}